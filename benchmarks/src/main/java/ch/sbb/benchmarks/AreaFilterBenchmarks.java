@@ -0,0 +1,92 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.benchmarks;
+
+import java.net.MalformedURLException;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.sbb.prepare.AreaFilter;
+
+/**
+ * The area tests of trimSchedule, which do not modify the schedule.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AreaFilterBenchmarks {
+
+	private static final String AREA_SHP_FILE = "original_data/shp/olten/olten.shp";
+
+	@Param({ "20", "60" })
+	public int gridSize;
+
+	private Network network;
+	private TransitSchedule schedule;
+	private AreaFilter area;
+	private BitSet linksInArea;
+
+	@Setup(Level.Trial)
+	public void setup() throws MalformedURLException {
+		this.network = BenchmarkFixtures.createNetwork(this.gridSize);
+		this.schedule = BenchmarkFixtures.createSchedule(this.network, this.gridSize, 1, 600.);
+		this.area = AreaFilter.fromShapeFile(AREA_SHP_FILE);
+		this.linksInArea = this.area.getRouteLinksInArea(this.schedule, this.network);
+	}
+
+	@Benchmark
+	public BitSet getRouteLinksInArea() {
+		return this.area.getRouteLinksInArea(this.schedule, this.network);
+	}
+
+	@Benchmark
+	public int routeHasLinkInArea() {
+		int routesInArea = 0;
+		for (TransitLine line : this.schedule.getTransitLines().values()) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				if (AreaFilter.routeHasLinkInArea(route, this.linksInArea)) {
+					routesInArea++;
+				}
+			}
+		}
+		return routesInArea;
+	}
+
+}
@@ -0,0 +1,162 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt2matsim.tools.NetworkTools;
+import org.matsim.pt2matsim.tools.ScheduleTools;
+import org.matsim.vehicles.Vehicles;
+
+import ch.sbb.prepare.SyntheticRailScenario;
+import ch.sbb.run.RunSwitzerlandRailway;
+import ch.sbb.run.ScenarioSnapshot;
+import ch.sbb.run.SwitzerlandRailwayConfigGroup;
+import ch.sbb.run.VehicleTypeRegistry;
+
+/**
+ * Synthetic scenarios for the benchmarks, so they run without the original data.
+ *
+ * The network and schedule are the grid of SyntheticRailScenario around Olten, so the area filters of
+ * GenerateRailsimInput keep a part of it. Every sixth line is turned into a bus line, which is removed by the rail
+ * mode filter.
+ */
+public final class BenchmarkFixtures {
+
+	private static final double LINK_LENGTH = 2000.;
+
+	// every sixth line is a bus line, removed by the rail mode filter of GenerateRailsimInput
+	private static final int BUS_LINE_INTERVAL = 6;
+
+	// system property with the project directory, see getProjectFile
+	static final String PROJECT_DIRECTORY_PROPERTY = "project.dir";
+	private static final String MATSIM_INPUT = "matsim_input";
+
+	static final String VEHICLE_TYPES_FILE = MATSIM_INPUT + "/vehicleTypes.xml";
+
+	private BenchmarkFixtures() {
+	}
+
+	public static Network createNetwork(int gridSize) {
+		return SyntheticRailScenario.createGridNetwork(gridSize, LINK_LENGTH);
+	}
+
+	/**
+	 * @param departures departures per route, starting at 06:00.
+	 * @param headway time between the departures of a route [s].
+	 */
+	public static TransitSchedule createSchedule(Network network, int gridSize, int departures, double headway) {
+		TransitSchedule schedule = SyntheticRailScenario.createGridSchedule(network, gridSize, departures, headway);
+		int lineCount = 0;
+		for (TransitLine line : schedule.getTransitLines().values()) {
+			if (lineCount % BUS_LINE_INTERVAL == BUS_LINE_INTERVAL - 1) {
+				line.setName("B" + lineCount);
+				line.getRoutes().values().forEach(route -> route.setTransportMode("bus"));
+			}
+			lineCount++;
+		}
+		return schedule;
+	}
+
+	public static Vehicles createVehicles(TransitSchedule schedule) {
+		return ScheduleTools.createVehicles(schedule);
+	}
+
+	/**
+	 * @return the file relative to the project directory, which is given by the system property
+	 *         {@value #PROJECT_DIRECTORY_PROPERTY} or else is the working directory or the first of its parents which
+	 *         contains {@value #MATSIM_INPUT}, so the benchmarks can also be run from the benchmarks directory.
+	 */
+	static Path getProjectFile(String file) {
+		String projectDirectory = System.getProperty(PROJECT_DIRECTORY_PROPERTY);
+		if (projectDirectory != null) {
+			return Path.of(projectDirectory).toAbsolutePath().resolve(file);
+		}
+		for (Path directory = Path.of("").toAbsolutePath(); directory != null; directory = directory.getParent()) {
+			if (Files.isDirectory(directory.resolve(MATSIM_INPUT))) {
+				return directory.resolve(file);
+			}
+		}
+		throw new IllegalStateException(MATSIM_INPUT + " not found in the working directory or its parents, set -D" + PROJECT_DIRECTORY_PROPERTY
+				+ " to the project directory.");
+	}
+
+	public static VehicleTypeRegistry loadVehicleTypes() {
+		try {
+			return VehicleTypeRegistry.load(getProjectFile(VEHICLE_TYPES_FILE).toUri().toURL());
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes the scenario files and the snapshot into the directory.
+	 *
+	 * @return the config of the scenario, without the snapshot.
+	 */
+	public static Config writeScenario(Path directory, int gridSize, int departures, double headway) {
+		try {
+			Files.createDirectories(directory);
+			Files.copy(getProjectFile(VEHICLE_TYPES_FILE), directory.resolve("vehicleTypes.xml"), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		Network network = createNetwork(gridSize);
+		TransitSchedule schedule = createSchedule(network, gridSize, departures, headway);
+		Vehicles vehicles = createVehicles(schedule);
+		NetworkTools.writeNetwork(network, directory.resolve("transitNetwork.xml.gz").toString());
+		ScheduleTools.writeTransitSchedule(schedule, directory.resolve("transitSchedule.xml.gz").toString());
+		ScheduleTools.writeVehicles(vehicles, directory.resolve("transitVehicles.xml.gz").toString());
+
+		Config config = createConfig(directory);
+		RunSwitzerlandRailway.adjustVehicles(schedule, vehicles, RunSwitzerlandRailway.loadVehicleTypes(config));
+		RunSwitzerlandRailway.adjustNetwork(network, schedule, ConfigUtils.addOrGetModule(config, SwitzerlandRailwayConfigGroup.class));
+		ScenarioSnapshot.write(directory.resolve("scenarioSnapshot.bin").toString(), config, network, schedule, vehicles);
+		return config;
+	}
+
+	public static Config createConfig(Path directory) {
+		Config config = ConfigUtils.createConfig(new SwitzerlandRailwayConfigGroup());
+		try {
+			config.setContext(directory.resolve("config.xml").toUri().toURL());
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+		config.global().setCoordinateSystem("EPSG:2056");
+		config.network().setInputFile("transitNetwork.xml.gz");
+		config.transit().setUseTransit(true);
+		config.transit().setTransitScheduleFile("transitSchedule.xml.gz");
+		config.transit().setVehiclesFile("transitVehicles.xml.gz");
+		config.controller().setOutputDirectory(directory.resolve("output").toString());
+		config.controller().setLastIteration(0);
+		return config;
+	}
+
+}
@@ -0,0 +1,73 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Properties;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results as JSON into {@value #RESULTS_DIRECTORY}, one file per run named after
+ * the MATSim version and the time of the run. The usual JMH command line options can be passed on, e.g. a benchmark
+ * name pattern or {@code -p gridSize=20}.
+ *
+ * The fixtures find the project directory from the working directory or the system property
+ * {@value BenchmarkFixtures#PROJECT_DIRECTORY_PROPERTY}, which is passed on to the forked JVMs. The area filters of
+ * GenerateRailsimInput still read their shape files relative to the working directory, so the filterSchedule and
+ * trimSchedule benchmarks need the project directory as working directory.
+ */
+public final class BenchmarkRunner {
+
+	private static final String RESULTS_DIRECTORY = "benchmarks/results";
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+		Properties properties = new Properties();
+		try (InputStream in = BenchmarkRunner.class.getResourceAsStream("/benchmark.properties")) {
+			properties.load(in);
+		}
+		String matsimVersion = properties.getProperty("matsim.version");
+
+		Path resultsDirectory = BenchmarkFixtures.getProjectFile(RESULTS_DIRECTORY);
+		Files.createDirectories(resultsDirectory);
+		String time = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+		Path resultFile = resultsDirectory.resolve("jmh_matsim-" + matsimVersion + "_" + time + ".json");
+
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultFile.toString())
+				.jvmArgsAppend("-D" + BenchmarkFixtures.PROJECT_DIRECTORY_PROPERTY + "=" + BenchmarkFixtures.getProjectFile(""))
+				.build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,104 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.benchmarks;
+
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.vehicles.Vehicles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.sbb.prepare.GenerateRailsimInput;
+import ch.sbb.run.RunSwitzerlandRailway;
+import ch.sbb.run.SwitzerlandRailwayConfigGroup;
+import ch.sbb.run.VehicleTypeRegistry;
+
+/**
+ * Steps which modify the schedule, network or vehicles. Each iteration runs once on a fresh fixture.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PipelineStepBenchmarks {
+
+	@Param({ "20", "60" })
+	public int gridSize;
+
+	@Param({ "36" })
+	public int departures;
+
+	private Network network;
+	private TransitSchedule schedule;
+	private Vehicles vehicles;
+	private VehicleTypeRegistry vehicleTypes;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		this.vehicleTypes = BenchmarkFixtures.loadVehicleTypes();
+	}
+
+	@Setup(Level.Iteration)
+	public void setupIteration() {
+		this.network = BenchmarkFixtures.createNetwork(this.gridSize);
+		this.schedule = BenchmarkFixtures.createSchedule(this.network, this.gridSize, this.departures, 600.);
+		this.vehicles = BenchmarkFixtures.createVehicles(this.schedule);
+	}
+
+	@Benchmark
+	public TransitSchedule filterSchedule() throws MalformedURLException {
+		GenerateRailsimInput.filterSchedule(this.schedule);
+		return this.schedule;
+	}
+
+	@Benchmark
+	public TransitSchedule trimSchedule() throws MalformedURLException {
+		GenerateRailsimInput.trimSchedule(this.schedule, this.network, this.vehicles);
+		return this.schedule;
+	}
+
+	@Benchmark
+	public Network adjustNetwork() {
+		RunSwitzerlandRailway.adjustNetwork(this.network, this.schedule, new SwitzerlandRailwayConfigGroup());
+		return this.network;
+	}
+
+	@Benchmark
+	public Vehicles adjustVehicles() {
+		RunSwitzerlandRailway.adjustVehicles(this.schedule, this.vehicles, this.vehicleTypes);
+		return this.vehicles;
+	}
+
+}
@@ -0,0 +1,117 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.QSimConfigGroup;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.mobsim.qsim.QSim;
+import org.matsim.core.mobsim.qsim.QSimBuilder;
+import org.matsim.core.utils.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.sbb.matsim.contrib.railsim.qsimengine.RailsimQSimModule;
+import ch.sbb.run.RunSwitzerlandRailway;
+import ch.sbb.run.SwitzerlandRailwayConfigGroup;
+
+/**
+ * A short railsim QSim run from 06:00 to 08:00, either on the synthetic scenario or on the Olten scenario in
+ * matsim_input, which requires the files generated by GenerateRailsimInput ({@code -p scenario=olten}).
+ *
+ * Only the QSim run is measured. The scenario is loaded and adjusted once per trial, the QSim with the railsim
+ * components is built before each iteration, since a QSim can only run once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QSimBenchmarks {
+
+	private static final String OLTEN_CONFIG = "matsim_input/config.xml";
+
+	@Param({ "synthetic" })
+	public String scenario;
+
+	@Param({ "20" })
+	public int gridSize;
+
+	private Path directory;
+	private Scenario loadedScenario;
+	private QSim qsim;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		this.directory = Files.createTempDirectory("qsim");
+		Config config;
+		if ("synthetic".equals(this.scenario)) {
+			BenchmarkFixtures.writeScenario(this.directory, this.gridSize, 12, 600.);
+			config = BenchmarkFixtures.createConfig(this.directory);
+		} else {
+			config = ConfigUtils.loadConfig(BenchmarkFixtures.getProjectFile(OLTEN_CONFIG).toString(), new SwitzerlandRailwayConfigGroup());
+		}
+		config.qsim().setStartTime(6 * 3600.);
+		config.qsim().setEndTime(8 * 3600.);
+		config.qsim().setSimStarttimeInterpretation(QSimConfigGroup.StarttimeInterpretation.onlyUseStarttime);
+		this.loadedScenario = RunSwitzerlandRailway.loadScenario(config);
+	}
+
+	@Setup(Level.Iteration)
+	public void setupIteration() {
+		EventsManager events = EventsUtils.createEventsManager(this.loadedScenario.getConfig());
+		this.qsim = new QSimBuilder(this.loadedScenario.getConfig())
+				.useDefaults()
+				.addQSimModule(new RailsimQSimModule())
+				.configureQSimComponents(components -> new RailsimQSimModule().configure(components))
+				.build(this.loadedScenario, events);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		IOUtils.deleteDirectoryRecursively(this.directory);
+	}
+
+	@Benchmark
+	public void runQSim() {
+		this.qsim.run();
+	}
+
+}
@@ -0,0 +1,87 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.sbb.run.RunSwitzerlandRailway;
+import ch.sbb.run.SwitzerlandRailwayConfigGroup;
+
+/**
+ * Loading the scenario from the xml files including the railsim adjustments, and from the binary snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ScenarioLoadingBenchmarks {
+
+	@Param({ "20", "60" })
+	public int gridSize;
+
+	private Path directory;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.directory = Files.createTempDirectory("scenario-loading");
+		BenchmarkFixtures.writeScenario(this.directory, this.gridSize, 36, 600.);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		IOUtils.deleteDirectoryRecursively(this.directory);
+	}
+
+	@Benchmark
+	public Scenario loadXml() {
+		return RunSwitzerlandRailway.loadScenario(BenchmarkFixtures.createConfig(this.directory));
+	}
+
+	@Benchmark
+	public Scenario loadSnapshot() {
+		Config config = BenchmarkFixtures.createConfig(this.directory);
+		ConfigUtils.addOrGetModule(config, SwitzerlandRailwayConfigGroup.class).snapshotFile = "scenarioSnapshot.bin";
+		return RunSwitzerlandRailway.loadScenario(config);
+	}
+
+}
@@ -0,0 +1,70 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.analysis;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.handler.BasicEventHandler;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.listener.BeforeMobsimListener;
+import org.matsim.core.controler.listener.IterationEndsListener;
+
+/**
+ * Runs the RailsimEventsAnalysis during the last iteration and writes its tables into the output directory.
+ */
+public final class RailsimAnalysisModule extends AbstractModule {
+
+	@Override
+	public void install() {
+		LastIterationAnalysis analysis = new LastIterationAnalysis();
+		addControlerListenerBinding().toInstance(analysis);
+		addEventHandlerBinding().toInstance(analysis);
+	}
+
+	private static final class LastIterationAnalysis implements BeforeMobsimListener, IterationEndsListener, BasicEventHandler {
+
+		private volatile RailsimEventsAnalysis analysis = null;
+
+		@Override
+		public void notifyBeforeMobsim(BeforeMobsimEvent event) {
+			if (event.getIteration() == event.getServices().getConfig().controller().getLastIteration()) {
+				this.analysis = new RailsimEventsAnalysis(event.getServices().getScenario().getNetwork(),
+						event.getServices().getScenario().getTransitSchedule(), event.getServices().getControlerIO().getOutputPath());
+			}
+		}
+
+		@Override
+		public void handleEvent(Event event) {
+			if (this.analysis != null) {
+				this.analysis.handleEvent(event);
+			}
+		}
+
+		@Override
+		public void notifyIterationEnds(IterationEndsEvent event) {
+			if (this.analysis != null) {
+				this.analysis.finish();
+				this.analysis = null;
+			}
+		}
+	}
+
+}
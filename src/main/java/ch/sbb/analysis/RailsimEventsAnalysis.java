@@ -0,0 +1,384 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.analysis;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.HasLinkId;
+import org.matsim.api.core.v01.events.HasVehicleId;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.api.experimental.events.VehicleArrivesAtFacilityEvent;
+import org.matsim.core.api.experimental.events.VehicleDepartsAtFacilityEvent;
+import org.matsim.core.api.experimental.events.handler.BasicEventHandler;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.vehicles.Vehicle;
+
+import ch.sbb.matsim.contrib.railsim.RailsimUtils;
+
+/**
+ * Aggregates the railsim and transit events of one simulation in a single pass, either as event handler during the
+ * simulation or while reading an events file, see RunRailsimEventsAnalysis.
+ *
+ * The state is kept in primitive arrays indexed by the railsim resource, the link, the vehicle and the departure, so the
+ * memory does not grow with the number of events. The results are written as semicolon separated tables:
+ * <ul>
+ * <li>{@value #RESOURCES_FILE}: per resource, the time during which at least one of its links was reserved or
+ * blocked, the number of such occupations and the standstills of trains on its links.</li>
+ * <li>{@value #DEPARTURES_FILE}: per departure, the arrival delays against the schedule and the standstills.</li>
+ * <li>{@value #STANDSTILLS_FILE}: every standstill of a train outside a stop, written as soon as the train moves
+ * again. These are the episodes in which a train waits for a blocked resource.</li>
+ * </ul>
+ * The railsim events are read by their type and attributes, so they are handled the same way whether they are created
+ * by the railsim engine or read as generic events from a file.
+ */
+public final class RailsimEventsAnalysis implements BasicEventHandler {
+	private static final Logger log = LogManager.getLogger(RailsimEventsAnalysis.class);
+
+	public static final String RESOURCES_FILE = "railsim_resource_occupancy.csv";
+	public static final String DEPARTURES_FILE = "railsim_departure_delays.csv";
+	public static final String STANDSTILLS_FILE = "railsim_standstills.csv";
+
+	private static final String SEPARATOR = ";";
+
+	private static final String LINK_STATE_EVENT = "railsimLinkStateChangeEvent";
+	private static final String TRAIN_STATE_EVENT = "railsimTrainStateEvent";
+	private static final String ATTRIBUTE_STATE = "state";
+	private static final String ATTRIBUTE_SPEED = "speed";
+	private static final String ATTRIBUTE_HEAD_LINK = "headLink";
+	private static final String ATTRIBUTE_VEHICLE = "vehicle";
+	private static final String STATE_FREE = "FREE";
+
+	// shorter standstills, e.g. when a train stops at the same time as it arrives at a stop, are ignored
+	private static final double MIN_STANDSTILL_DURATION = 1.;
+
+	private final String outputDirectory;
+	private final BufferedWriter standstillsWriter;
+
+	// resources
+	private final String[] resourceIds;
+	private final int[] linkResource;
+	private final BitSet occupiedLinks = new BitSet();
+	private final int[] occupiedLinkCount;
+	private final double[] occupiedSince;
+	private final double[] occupiedTime;
+	private final int[] occupations;
+	private final int[] resourceStandstills;
+	private final double[] resourceStandstillTime;
+
+	// departures
+	private final Departure[] departures;
+	private final String[] departureLines;
+	private final String[] departureRoutes;
+	private final int[] vehicleDeparture;
+	private final int[] arrivals;
+	private final double[] arrivalDelaySum;
+	private final double[] maxArrivalDelay;
+	private final double[] lastArrivalDelay;
+	private final double[] firstDepartureDelay;
+	private final int[] departureStandstills;
+	private final double[] departureStandstillTime;
+
+	// train state per vehicle
+	private final BitSet atStop = new BitSet();
+	private final double[] standstillSince;
+	private final int[] standstillLink;
+
+	private double lastTime = Double.NaN;
+	private long eventCount = 0;
+
+	public RailsimEventsAnalysis(Network network, TransitSchedule schedule, String outputDirectory) {
+		this.outputDirectory = outputDirectory;
+
+		int linkCount = Id.getNumberOfIds(Link.class);
+		this.linkResource = new int[linkCount];
+		Arrays.fill(this.linkResource, -1);
+		Map<String, Integer> resourceIndex = new HashMap<>();
+		for (Link link : network.getLinks().values()) {
+			// links without resource are their own resource in railsim
+			String resourceId = RailsimUtils.getResourceId(link);
+			if (resourceId == null) {
+				resourceId = link.getId().toString();
+			}
+			this.linkResource[link.getId().index()] = resourceIndex.computeIfAbsent(resourceId, id -> resourceIndex.size());
+		}
+		this.resourceIds = new String[resourceIndex.size()];
+		resourceIndex.forEach((id, index) -> this.resourceIds[index] = id);
+		this.occupiedLinkCount = new int[this.resourceIds.length];
+		this.occupiedSince = new double[this.resourceIds.length];
+		this.occupiedTime = new double[this.resourceIds.length];
+		this.occupations = new int[this.resourceIds.length];
+		this.resourceStandstills = new int[this.resourceIds.length];
+		this.resourceStandstillTime = new double[this.resourceIds.length];
+
+		int departureCount = schedule.getTransitLines().values().stream()
+				.flatMap(line -> line.getRoutes().values().stream())
+				.mapToInt(route -> route.getDepartures().size())
+				.sum();
+		this.departures = new Departure[departureCount];
+		this.departureLines = new String[departureCount];
+		this.departureRoutes = new String[departureCount];
+		int vehicleCount = Id.getNumberOfIds(Vehicle.class);
+		this.vehicleDeparture = new int[vehicleCount];
+		Arrays.fill(this.vehicleDeparture, -1);
+		int d = 0;
+		for (TransitLine line : schedule.getTransitLines().values()) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				for (Departure departure : route.getDepartures().values()) {
+					this.departures[d] = departure;
+					this.departureLines[d] = line.getId().toString();
+					this.departureRoutes[d] = route.getId().toString();
+					if (departure.getVehicleId() != null) {
+						this.vehicleDeparture[departure.getVehicleId().index()] = d;
+					}
+					d++;
+				}
+			}
+		}
+		this.arrivals = new int[departureCount];
+		this.arrivalDelaySum = new double[departureCount];
+		this.maxArrivalDelay = new double[departureCount];
+		this.lastArrivalDelay = new double[departureCount];
+		this.firstDepartureDelay = new double[departureCount];
+		Arrays.fill(this.lastArrivalDelay, Double.NaN);
+		Arrays.fill(this.firstDepartureDelay, Double.NaN);
+		this.departureStandstills = new int[departureCount];
+		this.departureStandstillTime = new double[departureCount];
+
+		this.standstillSince = new double[vehicleCount];
+		Arrays.fill(this.standstillSince, Double.NaN);
+		this.standstillLink = new int[vehicleCount];
+
+		this.standstillsWriter = IOUtils.getBufferedWriter(outputDirectory + "/" + STANDSTILLS_FILE);
+		writeLine(this.standstillsWriter, "vehicle", "line", "route", "departure", "link", "resource", "start", "end", "duration_s");
+	}
+
+	@Override
+	public void handleEvent(Event event) {
+		this.eventCount++;
+		this.lastTime = event.getTime();
+		if (event instanceof VehicleArrivesAtFacilityEvent arrival) {
+			handleArrival(arrival);
+		} else if (event instanceof VehicleDepartsAtFacilityEvent departure) {
+			handleDeparture(departure);
+		} else if (LINK_STATE_EVENT.equals(event.getEventType())) {
+			handleLinkState(event);
+		} else if (TRAIN_STATE_EVENT.equals(event.getEventType())) {
+			handleTrainState(event);
+		}
+	}
+
+	private void handleArrival(VehicleArrivesAtFacilityEvent event) {
+		int vehicle = vehicleIndex(event.getVehicleId());
+		if (vehicle < 0) {
+			return;
+		}
+		this.atStop.set(vehicle);
+		// a standstill which starts at the arrival is the stop itself
+		this.standstillSince[vehicle] = Double.NaN;
+		int d = this.vehicleDeparture[vehicle];
+		double delay = event.getDelay();
+		if (d >= 0 && !Double.isNaN(delay)) {
+			this.arrivals[d]++;
+			this.arrivalDelaySum[d] += delay;
+			this.maxArrivalDelay[d] = this.arrivals[d] == 1 ? delay : Math.max(this.maxArrivalDelay[d], delay);
+			this.lastArrivalDelay[d] = delay;
+		}
+	}
+
+	private void handleDeparture(VehicleDepartsAtFacilityEvent event) {
+		int vehicle = vehicleIndex(event.getVehicleId());
+		if (vehicle < 0) {
+			return;
+		}
+		this.atStop.clear(vehicle);
+		int d = this.vehicleDeparture[vehicle];
+		if (d >= 0 && Double.isNaN(this.firstDepartureDelay[d])) {
+			this.firstDepartureDelay[d] = event.getDelay();
+		}
+	}
+
+	private void handleLinkState(Event event) {
+		int link = linkIndex(event);
+		if (link < 0 || link >= this.linkResource.length || this.linkResource[link] < 0) {
+			return;
+		}
+		int resource = this.linkResource[link];
+		boolean occupied = !STATE_FREE.equals(event.getAttributes().get(ATTRIBUTE_STATE));
+		if (occupied == this.occupiedLinks.get(link)) {
+			return;
+		}
+		this.occupiedLinks.set(link, occupied);
+		if (occupied) {
+			if (this.occupiedLinkCount[resource]++ == 0) {
+				this.occupiedSince[resource] = event.getTime();
+				this.occupations[resource]++;
+			}
+		} else if (--this.occupiedLinkCount[resource] == 0) {
+			this.occupiedTime[resource] += event.getTime() - this.occupiedSince[resource];
+		}
+	}
+
+	private void handleTrainState(Event event) {
+		Map<String, String> attributes = event.getAttributes();
+		int vehicle = vehicleIndex(event instanceof HasVehicleId v ? v.getVehicleId() : Id.createVehicleId(attributes.get(ATTRIBUTE_VEHICLE)));
+		if (vehicle < 0) {
+			return;
+		}
+		double speed = Double.parseDouble(attributes.get(ATTRIBUTE_SPEED));
+		if (speed <= 0.) {
+			if (Double.isNaN(this.standstillSince[vehicle]) && !this.atStop.get(vehicle)) {
+				this.standstillSince[vehicle] = event.getTime();
+				String headLink = attributes.get(ATTRIBUTE_HEAD_LINK);
+				this.standstillLink[vehicle] = headLink == null ? -1 : Id.createLinkId(headLink).index();
+			}
+		} else if (!Double.isNaN(this.standstillSince[vehicle])) {
+			endStandstill(vehicle, event.getTime());
+		}
+	}
+
+	private void endStandstill(int vehicle, double time) {
+		double start = this.standstillSince[vehicle];
+		this.standstillSince[vehicle] = Double.NaN;
+		double duration = time - start;
+		if (duration < MIN_STANDSTILL_DURATION) {
+			return;
+		}
+		int link = this.standstillLink[vehicle];
+		int resource = link >= 0 && link < this.linkResource.length ? this.linkResource[link] : -1;
+		if (resource >= 0) {
+			this.resourceStandstills[resource]++;
+			this.resourceStandstillTime[resource] += duration;
+		}
+		int d = this.vehicleDeparture[vehicle];
+		if (d >= 0) {
+			this.departureStandstills[d]++;
+			this.departureStandstillTime[d] += duration;
+		}
+		writeLine(this.standstillsWriter, Id.get(vehicle, Vehicle.class).toString(),
+				d >= 0 ? this.departureLines[d] : "", d >= 0 ? this.departureRoutes[d] : "", d >= 0 ? this.departures[d].getId().toString() : "",
+				link >= 0 ? Id.get(link, Link.class).toString() : "", resource >= 0 ? this.resourceIds[resource] : "",
+				format(start), format(time), format(duration));
+	}
+
+	private static int linkIndex(Event event) {
+		if (event instanceof HasLinkId hasLinkId) {
+			return hasLinkId.getLinkId().index();
+		}
+		String link = event.getAttributes().get(HasLinkId.ATTRIBUTE_LINK);
+		return link == null ? -1 : Id.createLinkId(link).index();
+	}
+
+	private int vehicleIndex(Id<Vehicle> vehicleId) {
+		if (vehicleId == null) {
+			return -1;
+		}
+		int index = vehicleId.index();
+		// vehicles which are not in the scenario, e.g. when reading the events of another run
+		return index < this.vehicleDeparture.length ? index : -1;
+	}
+
+	/**
+	 * Closes the open occupations and standstills at the time of the last event and writes the tables.
+	 */
+	public void finish() {
+		double endTime = Double.isNaN(this.lastTime) ? 0. : this.lastTime;
+		for (int vehicle = 0; vehicle < this.standstillSince.length; vehicle++) {
+			if (!Double.isNaN(this.standstillSince[vehicle])) {
+				endStandstill(vehicle, endTime);
+			}
+		}
+		for (int resource = 0; resource < this.resourceIds.length; resource++) {
+			if (this.occupiedLinkCount[resource] > 0) {
+				this.occupiedTime[resource] += endTime - this.occupiedSince[resource];
+			}
+		}
+		try {
+			this.standstillsWriter.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		writeResources();
+		writeDepartures();
+		log.info("Analyzed " + this.eventCount + " events, wrote the railsim analysis to " + this.outputDirectory);
+	}
+
+	private void writeResources() {
+		try (BufferedWriter writer = IOUtils.getBufferedWriter(this.outputDirectory + "/" + RESOURCES_FILE)) {
+			writeLine(writer, "resource", "occupations", "occupiedTime_s", "standstills", "standstillTime_s");
+			for (int resource = 0; resource < this.resourceIds.length; resource++) {
+				if (this.occupations[resource] > 0 || this.resourceStandstills[resource] > 0) {
+					writeLine(writer, this.resourceIds[resource], Integer.toString(this.occupations[resource]),
+							format(this.occupiedTime[resource]), Integer.toString(this.resourceStandstills[resource]),
+							format(this.resourceStandstillTime[resource]));
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeDepartures() {
+		try (BufferedWriter writer = IOUtils.getBufferedWriter(this.outputDirectory + "/" + DEPARTURES_FILE)) {
+			writeLine(writer, "line", "route", "departure", "vehicle", "departureTime", "firstDepartureDelay_s", "stopArrivals",
+					"meanArrivalDelay_s", "maxArrivalDelay_s", "lastArrivalDelay_s", "standstills", "standstillTime_s");
+			for (int d = 0; d < this.departures.length; d++) {
+				Departure departure = this.departures[d];
+				writeLine(writer, this.departureLines[d], this.departureRoutes[d], departure.getId().toString(),
+						departure.getVehicleId() == null ? "" : departure.getVehicleId().toString(), format(departure.getDepartureTime()),
+						format(this.firstDepartureDelay[d]), Integer.toString(this.arrivals[d]),
+						format(this.arrivals[d] == 0 ? Double.NaN : this.arrivalDelaySum[d] / this.arrivals[d]),
+						format(this.arrivals[d] == 0 ? Double.NaN : this.maxArrivalDelay[d]), format(this.lastArrivalDelay[d]),
+						Integer.toString(this.departureStandstills[d]), format(this.departureStandstillTime[d]));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String format(double value) {
+		return Double.isNaN(value) ? "" : String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	private static void writeLine(BufferedWriter writer, String... values) {
+		try {
+			writer.write(String.join(SEPARATOR, values));
+			writer.newLine();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
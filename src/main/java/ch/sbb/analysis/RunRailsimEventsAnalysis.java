@@ -0,0 +1,75 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.analysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.MatsimEventsReader;
+
+import ch.sbb.run.RunSwitzerlandRailway;
+import ch.sbb.run.SwitzerlandRailwayConfigGroup;
+
+/**
+ * Analyzes the events file of a finished run in one streaming pass, see RailsimEventsAnalysis.
+ *
+ * Arguments: the config file of the run, the events file and optionally the output directory, by default the
+ * directory of the events file. The scenario is loaded like in RunSwitzerlandRailway, so the railsim resources and
+ * vehicles match the run.
+ */
+public final class RunRailsimEventsAnalysis {
+	private static final Logger log = LogManager.getLogger(RunRailsimEventsAnalysis.class);
+
+	private RunRailsimEventsAnalysis() {
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			throw new IllegalArgumentException("Usage: RunRailsimEventsAnalysis <config file> <events file> [<output directory>]");
+		}
+		String eventsFile = args[1];
+		String outputDirectory;
+		if (args.length > 2) {
+			outputDirectory = args[2];
+		} else {
+			int separator = eventsFile.lastIndexOf('/');
+			outputDirectory = separator < 0 ? "." : eventsFile.substring(0, separator);
+		}
+
+		Config config = ConfigUtils.loadConfig(args[0], new SwitzerlandRailwayConfigGroup());
+		Scenario scenario = RunSwitzerlandRailway.loadScenario(config);
+
+		RailsimEventsAnalysis analysis = new RailsimEventsAnalysis(scenario.getNetwork(), scenario.getTransitSchedule(), outputDirectory);
+		EventsManager events = EventsUtils.createEventsManager();
+		events.addHandler(analysis);
+		events.initProcessing();
+		log.info("Reading " + eventsFile + "...");
+		new MatsimEventsReader(events).readFile(eventsFile);
+		events.finishProcessing();
+		analysis.finish();
+
+		log.info("Done.");
+	}
+
+}
@@ -0,0 +1,88 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.events;
+
+import java.util.Set;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.handler.BasicEventHandler;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.listener.BeforeMobsimListener;
+import org.matsim.core.controler.listener.IterationEndsListener;
+
+/**
+ * Writes the events of the last iteration with the BinaryEventsWriter into {@value #OUTPUT_FILE} in the output
+ * directory.
+ */
+public final class BinaryEventsModule extends AbstractModule {
+
+	public static final String OUTPUT_FILE = "output_events.bin";
+
+	private final Set<String> eventTypes;
+
+	/**
+	 * @param eventTypes types of the events which are written, all events if empty.
+	 */
+	public BinaryEventsModule(Set<String> eventTypes) {
+		this.eventTypes = eventTypes;
+	}
+
+	@Override
+	public void install() {
+		LastIterationEvents events = new LastIterationEvents(this.eventTypes);
+		addControlerListenerBinding().toInstance(events);
+		addEventHandlerBinding().toInstance(events);
+	}
+
+	private static final class LastIterationEvents implements BeforeMobsimListener, IterationEndsListener, BasicEventHandler {
+
+		private final Set<String> eventTypes;
+		private volatile BinaryEventsWriter writer = null;
+
+		LastIterationEvents(Set<String> eventTypes) {
+			this.eventTypes = eventTypes;
+		}
+
+		@Override
+		public void notifyBeforeMobsim(BeforeMobsimEvent event) {
+			if (event.getIteration() == event.getServices().getConfig().controller().getLastIteration()) {
+				this.writer = new BinaryEventsWriter(event.getServices().getControlerIO().getOutputFilename(OUTPUT_FILE), this.eventTypes);
+			}
+		}
+
+		@Override
+		public void handleEvent(Event event) {
+			if (this.writer != null) {
+				this.writer.handleEvent(event);
+			}
+		}
+
+		@Override
+		public void notifyIterationEnds(IterationEndsEvent event) {
+			if (this.writer != null) {
+				this.writer.close();
+				this.writer = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.events;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.GenericEvent;
+
+/**
+ * Reads a file written by BinaryEventsWriter and passes its events to the events manager.
+ *
+ * The events are restored as GenericEvents with the type, time and attributes of the original events, so handlers which
+ * use the event attributes, e.g. EventWriterXML, get the same values as from the original events.
+ */
+public final class BinaryEventsReader {
+	private static final Logger log = LogManager.getLogger(BinaryEventsReader.class);
+
+	private final EventsManager events;
+	private final List<String> dictionary = new ArrayList<>();
+
+	public BinaryEventsReader(EventsManager events) {
+		this.events = events;
+	}
+
+	public void readFile(String file) {
+		long eventCount = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Path.of(file)), 1 << 16))) {
+			if (in.readInt() != BinaryEventsWriter.MAGIC) {
+				throw new IllegalStateException("Not a binary events file: " + file);
+			}
+			int version = in.readInt();
+			if (version != BinaryEventsWriter.VERSION) {
+				throw new IllegalStateException("Unsupported binary events file version " + version + ": " + file);
+			}
+			Inflater inflater = new Inflater();
+			byte[] compressed = new byte[0];
+			try {
+				for (int rawLength = in.readInt(); rawLength != BinaryEventsWriter.END_OF_FILE; rawLength = in.readInt()) {
+					int compressedLength = in.readInt();
+					if (compressed.length < compressedLength) {
+						compressed = new byte[compressedLength];
+					}
+					in.readFully(compressed, 0, compressedLength);
+					byte[] raw = new byte[rawLength];
+					inflater.reset();
+					inflater.setInput(compressed, 0, compressedLength);
+					if (inflater.inflate(raw) != rawLength) {
+						throw new IllegalStateException("Corrupt block in the binary events file " + file);
+					}
+					eventCount += readBlock(new DataInputStream(new ByteArrayInputStream(raw)));
+				}
+			} catch (DataFormatException e) {
+				throw new IllegalStateException("Corrupt block in the binary events file " + file, e);
+			} finally {
+				inflater.end();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		log.info("Read " + eventCount + " events from " + file);
+	}
+
+	private int readBlock(DataInputStream in) throws IOException {
+		int eventCount = 0;
+		while (in.available() > 0) {
+			String type = readString(in);
+			double time = in.readDouble();
+			GenericEvent event = new GenericEvent(type, time);
+			// like the xml reader, the attributes of a generic event include its time and type
+			event.getAttributes().put(Event.ATTRIBUTE_TIME, Double.toString(time));
+			event.getAttributes().put(Event.ATTRIBUTE_TYPE, type);
+			int attributeCount = readVarInt(in);
+			for (int i = 0; i < attributeCount; i++) {
+				String key = readString(in);
+				event.getAttributes().put(key, readString(in));
+			}
+			this.events.processEvent(event);
+			eventCount++;
+		}
+		return eventCount;
+	}
+
+	private String readString(DataInputStream in) throws IOException {
+		int reference = readVarInt(in);
+		return switch (reference) {
+			case BinaryEventsWriter.STRING_NEW -> {
+				String s = in.readUTF();
+				this.dictionary.add(s);
+				yield s;
+			}
+			case BinaryEventsWriter.STRING_INLINE -> in.readUTF();
+			case BinaryEventsWriter.VALUE_LONG -> {
+				long zigzag = readVarLong(in);
+				yield Long.toString((zigzag >>> 1) ^ -(zigzag & 1));
+			}
+			case BinaryEventsWriter.VALUE_DOUBLE -> Double.toString(in.readDouble());
+			default -> this.dictionary.get(reference - BinaryEventsWriter.VALUE_DICTIONARY);
+		};
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,315 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.events;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.handler.BasicEventHandler;
+
+/**
+ * Writes events into a compact binary file, see BinaryEventsReader for reading it and ConvertBinaryEventsToXml for
+ * converting it into a standard events file.
+ *
+ * The events are written as their type, time and attributes, like in the xml events file. Strings are stored once and
+ * referenced by their index afterwards, attribute values which are numbers are stored as variable length integers or
+ * doubles if their string representation is restored exactly. Once the dictionary holds {@value #MAX_DICTIONARY_SIZE}
+ * strings, new strings are written inline, so unique values do not grow it without bound. The records are collected into blocks of about {@value #BLOCK_SIZE} bytes, which
+ * are deflate-compressed. The events are passed in batches to a background thread, which encodes and writes them, so
+ * the events processing only collects the events. If event types are given, only events of these types are written.
+ */
+public final class BinaryEventsWriter implements BasicEventHandler {
+	private static final Logger log = LogManager.getLogger(BinaryEventsWriter.class);
+
+	static final int MAGIC = 0x4d524556; // MREV
+	static final int VERSION = 2;
+	static final int END_OF_FILE = -1;
+
+	// string and value references: new dictionary string or inline string followed by its utf, zigzag encoded integer,
+	// double, otherwise the dictionary index + VALUE_DICTIONARY
+	static final int STRING_NEW = 0;
+	static final int STRING_INLINE = 1;
+	static final int VALUE_LONG = 2;
+	static final int VALUE_DOUBLE = 3;
+	static final int VALUE_DICTIONARY = 4;
+
+	static final int MAX_DICTIONARY_SIZE = 1 << 20;
+
+	static final int BLOCK_SIZE = 1 << 20;
+	private static final int BATCH_SIZE = 8192;
+	private static final int QUEUED_BATCHES = 16;
+
+	private final String file;
+	private final Set<String> eventTypes;
+	private final BlockingQueue<List<Event>> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+	private final Thread thread;
+	private volatile Throwable failure = null;
+
+	private List<Event> batch = new ArrayList<>(BATCH_SIZE);
+	private long eventCount = 0;
+
+	/**
+	 * @param eventTypes types of the events which are written, all events if empty.
+	 */
+	public BinaryEventsWriter(String file, Set<String> eventTypes) {
+		this.file = file;
+		this.eventTypes = eventTypes;
+		BlockWriter writer;
+		try {
+			writer = new BlockWriter(new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Path.of(file)), 1 << 16)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.thread = new Thread(() -> {
+			try (writer) {
+				for (List<Event> events = this.queue.take(); !events.isEmpty(); events = this.queue.take()) {
+					for (Event event : events) {
+						writer.write(event);
+					}
+				}
+			} catch (Throwable e) {
+				this.failure = e;
+				// release the events processing if it waits for a free place in the queue
+				this.queue.clear();
+			}
+		}, "BinaryEventsWriter");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	@Override
+	public void handleEvent(Event event) {
+		if (!this.eventTypes.isEmpty() && !this.eventTypes.contains(event.getEventType())) {
+			return;
+		}
+		this.batch.add(event);
+		if (this.batch.size() >= BATCH_SIZE) {
+			submit(this.batch);
+			this.batch = new ArrayList<>(BATCH_SIZE);
+		}
+	}
+
+	private void submit(List<Event> events) {
+		if (this.failure != null) {
+			throw new IllegalStateException("Writing the binary events file " + this.file + " failed.", this.failure);
+		}
+		this.eventCount += events.size();
+		try {
+			this.queue.put(events);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while writing the binary events file " + this.file, e);
+		}
+	}
+
+	/**
+	 * Writes the remaining events and closes the file.
+	 */
+	public void close() {
+		if (!this.batch.isEmpty()) {
+			submit(this.batch);
+			this.batch = new ArrayList<>();
+		}
+		submit(List.of());
+		try {
+			this.thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while closing the binary events file " + this.file, e);
+		}
+		if (this.failure != null) {
+			throw new IllegalStateException("Writing the binary events file " + this.file + " failed.", this.failure);
+		}
+		log.info("Wrote " + this.eventCount + " events to " + this.file);
+	}
+
+	@Override
+	public void reset(int iteration) {
+	}
+
+	/**
+	 * Encodes the events on the background thread.
+	 */
+	private static final class BlockWriter implements AutoCloseable {
+
+		private final DataOutputStream out;
+		private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + (BLOCK_SIZE >> 3));
+		private final DataOutputStream blockOut = new DataOutputStream(this.block);
+		private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		private final byte[] compressed = new byte[BLOCK_SIZE];
+		private final Map<String, Integer> dictionary = new HashMap<>();
+
+		BlockWriter(DataOutputStream out) throws IOException {
+			this.out = out;
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+
+		void write(Event event) throws IOException {
+			Map<String, String> attributes = event.getAttributes();
+			writeString(event.getEventType());
+			this.blockOut.writeDouble(event.getTime());
+			// time and type are part of the attributes, but already written
+			writeVarInt(this.blockOut, attributes.size() - (attributes.containsKey(Event.ATTRIBUTE_TIME) ? 1 : 0)
+					- (attributes.containsKey(Event.ATTRIBUTE_TYPE) ? 1 : 0));
+			for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+				String key = attribute.getKey();
+				if (!Event.ATTRIBUTE_TIME.equals(key) && !Event.ATTRIBUTE_TYPE.equals(key)) {
+					writeString(key);
+					writeValue(attribute.getValue());
+				}
+			}
+			if (this.block.size() >= BLOCK_SIZE) {
+				flushBlock();
+			}
+		}
+
+		private void writeString(String s) throws IOException {
+			Integer index = this.dictionary.get(s);
+			if (index != null) {
+				writeVarInt(this.blockOut, index + VALUE_DICTIONARY);
+			} else if (this.dictionary.size() < MAX_DICTIONARY_SIZE) {
+				writeVarInt(this.blockOut, STRING_NEW);
+				this.blockOut.writeUTF(s);
+				this.dictionary.put(s, this.dictionary.size());
+			} else {
+				writeVarInt(this.blockOut, STRING_INLINE);
+				this.blockOut.writeUTF(s);
+			}
+		}
+
+		private void writeValue(String value) throws IOException {
+			if (value == null) {
+				writeString("");
+				return;
+			}
+			if (isExactLong(value)) {
+				long number = Long.parseLong(value);
+				writeVarInt(this.blockOut, VALUE_LONG);
+				writeVarLong(this.blockOut, (number << 1) ^ (number >> 63));
+				return;
+			}
+			double number = parseExactDouble(value);
+			if (!Double.isNaN(number)) {
+				writeVarInt(this.blockOut, VALUE_DOUBLE);
+				this.blockOut.writeDouble(number);
+				return;
+			}
+			writeString(value);
+		}
+
+		/**
+		 * @return true if Long.toString restores the value exactly, e.g. not for leading zeros or a plus sign.
+		 */
+		private static boolean isExactLong(String value) {
+			int length = value.length();
+			int start = value.startsWith("-") ? 1 : 0;
+			if (length == start || length - start > 18 || (value.charAt(start) == '0' && length > 1)) {
+				return false;
+			}
+			for (int i = start; i < length; i++) {
+				char c = value.charAt(i);
+				if (c < '0' || c > '9') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return the value as double if Double.toString restores it exactly, otherwise NaN.
+		 */
+		private static double parseExactDouble(String value) {
+			if (value == null || value.isEmpty()) {
+				return Double.NaN;
+			}
+			char c = value.charAt(0);
+			if (c != '-' && (c < '0' || c > '9')) {
+				return Double.NaN;
+			}
+			try {
+				double number = Double.parseDouble(value);
+				return Double.toString(number).equals(value) ? number : Double.NaN;
+			} catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+
+		private void flushBlock() throws IOException {
+			if (this.block.size() == 0) {
+				return;
+			}
+			byte[] raw = this.block.toByteArray();
+			this.deflater.reset();
+			this.deflater.setInput(raw);
+			this.deflater.finish();
+			ByteArrayOutputStream compressedBlock = new ByteArrayOutputStream(raw.length / 4);
+			while (!this.deflater.finished()) {
+				int length = this.deflater.deflate(this.compressed);
+				compressedBlock.write(this.compressed, 0, length);
+			}
+			this.out.writeInt(raw.length);
+			this.out.writeInt(compressedBlock.size());
+			compressedBlock.writeTo(this.out);
+			this.block.reset();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flushBlock();
+			this.out.writeInt(END_OF_FILE);
+			this.out.close();
+			this.deflater.end();
+		}
+	}
+
+	static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+}
@@ -0,0 +1,57 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.events;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.algorithms.EventWriterXML;
+
+/**
+ * Converts a binary events file into a standard xml events file.
+ *
+ * Arguments: the binary events file and the xml events file, e.g. output_events.xml.gz.
+ */
+public final class ConvertBinaryEventsToXml {
+	private static final Logger log = LogManager.getLogger(ConvertBinaryEventsToXml.class);
+
+	private ConvertBinaryEventsToXml() {
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			throw new IllegalArgumentException("Usage: ConvertBinaryEventsToXml <binary events file> <xml events file>");
+		}
+		convert(args[0], args[1]);
+		log.info("Done.");
+	}
+
+	public static void convert(String binaryFile, String xmlFile) {
+		EventsManager events = EventsUtils.createEventsManager();
+		EventWriterXML writer = new EventWriterXML(xmlFile);
+		events.addHandler(writer);
+		events.initProcessing();
+		new BinaryEventsReader(events).readFile(binaryFile);
+		events.finishProcessing();
+		writer.closeFile();
+	}
+
+}
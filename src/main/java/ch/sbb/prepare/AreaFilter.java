@@ -0,0 +1,148 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.prepare;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.utils.gis.shp2matsim.ShpGeometryUtils;
+
+/**
+ * Tests coordinates against the geometries of a shape file. The geometries are stored in an STR-tree, so a test only
+ * looks at the few geometries whose envelope contains the coordinate.
+ *
+ * The link and stop facility tests are done once per element and stored in a bitset keyed by the {@link Id#index()},
+ * instead of once per transit route which uses the element.
+ */
+public final class AreaFilter {
+	private static final Logger log = LogManager.getLogger(AreaFilter.class);
+
+	private final STRtree index = new STRtree();
+	private final GeometryFactory geometryFactory = new GeometryFactory();
+
+	public AreaFilter(List<PreparedGeometry> geometries) {
+		for (PreparedGeometry geometry : geometries) {
+			this.index.insert(geometry.getGeometry().getEnvelopeInternal(), geometry);
+		}
+		// build the tree now, querying a built tree is thread-safe
+		this.index.build();
+	}
+
+	public static AreaFilter fromShapeFile(String shpFile) throws MalformedURLException {
+		return new AreaFilter(ShpGeometryUtils.loadPreparedGeometries(new File(shpFile).toURI().toURL()));
+	}
+
+	public boolean isCoordInArea(Coord coord) {
+		Point point = this.geometryFactory.createPoint(new Coordinate(coord.getX(), coord.getY()));
+		@SuppressWarnings("unchecked")
+		List<PreparedGeometry> candidates = this.index.query(point.getEnvelopeInternal());
+		for (PreparedGeometry candidate : candidates) {
+			if (candidate.contains(point)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the indices of all links used by the transit routes of the schedule which are in the area.
+	 */
+	public BitSet getRouteLinksInArea(TransitSchedule schedule, Network network) {
+		BitSet visited = new BitSet();
+		List<Link> links = new ArrayList<>();
+		for (TransitLine transitLine : schedule.getTransitLines().values()) {
+			for (TransitRoute transitRoute : transitLine.getRoutes().values()) {
+				for (Id<Link> linkId : transitRoute.getRoute().getLinkIds()) {
+					if (!visited.get(linkId.index())) {
+						visited.set(linkId.index());
+						links.add(network.getLinks().get(linkId));
+					}
+				}
+			}
+		}
+		return inArea(links, link -> link.getId().index(), Link::getCoord);
+	}
+
+	/**
+	 * @return the indices of all links of the network which are in the area.
+	 */
+	public BitSet getLinksInArea(Network network) {
+		return inArea(new ArrayList<>(network.getLinks().values()), link -> link.getId().index(), Link::getCoord);
+	}
+
+	/**
+	 * @return the indices of all stop facilities of the schedule which are in the area.
+	 */
+	public BitSet getStopFacilitiesInArea(TransitSchedule schedule) {
+		return inArea(new ArrayList<>(schedule.getFacilities().values()), stop -> stop.getId().index(), TransitStopFacility::getCoord);
+	}
+
+	private <T> BitSet inArea(List<T> elements, ToIntFunction<T> indexFunction, Function<T, Coord> coordFunction) {
+		int[] indices = elements.parallelStream()
+				.filter(element -> isCoordInArea(coordFunction.apply(element)))
+				.mapToInt(indexFunction)
+				.toArray();
+		BitSet inArea = new BitSet();
+		for (int i : indices) {
+			inArea.set(i);
+		}
+		log.info(indices.length + " of " + elements.size() + " elements are in the area.");
+		return inArea;
+	}
+
+	public static boolean routeHasLinkInArea(TransitRoute route, BitSet linksInArea) {
+		for (Id<Link> id : route.getRoute().getLinkIds()) {
+			if (linksInArea.get(id.index())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static boolean routeHasStopInArea(TransitRoute route, BitSet stopFacilitiesInArea) {
+		for (TransitRouteStop stop : route.getStops()) {
+			if (stopFacilitiesInArea.get(stop.getStopFacility().getId().index())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
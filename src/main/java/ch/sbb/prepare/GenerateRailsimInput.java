@@ -20,42 +20,49 @@ package ch.sbb.prepare;
 
 import java.io.File;
 import java.net.MalformedURLException;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
 import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.config.ConfigWriter;
 import org.matsim.core.utils.collections.CollectionUtils;
+import org.matsim.core.utils.collections.Tuple;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
-import org.matsim.pt.transitSchedule.api.TransitRouteStop;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt2matsim.config.OsmConverterConfigGroup;
 import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
-import org.matsim.pt2matsim.run.CreateDefaultOsmConfig;
-import org.matsim.pt2matsim.run.CreateDefaultPTMapperConfig;
-import org.matsim.pt2matsim.run.Gtfs2TransitSchedule;
-import org.matsim.pt2matsim.run.Osm2MultimodalNetwork;
-import org.matsim.pt2matsim.run.PublicTransitMapper;
+import org.matsim.pt2matsim.osm.OsmMultimodalNetworkConverter;
+import org.matsim.pt2matsim.osm.lib.Osm;
+import org.matsim.pt2matsim.osm.lib.OsmData;
+import org.matsim.pt2matsim.osm.lib.OsmDataImpl;
+import org.matsim.pt2matsim.osm.lib.OsmFileReader;
 import org.matsim.pt2matsim.tools.NetworkTools;
 import org.matsim.pt2matsim.tools.ScheduleTools;
 import org.matsim.pt2matsim.tools.debug.ScheduleCleaner;
-import org.matsim.utils.gis.shp2matsim.ShpGeometryUtils;
 import org.matsim.vehicles.Vehicles;
 
+import ch.sbb.run.RunSwitzerlandRailway;
+import ch.sbb.run.ScenarioSnapshot;
+import ch.sbb.run.SwitzerlandRailwayConfigGroup;
+
 public final class GenerateRailsimInput {
     private static final Logger log = LogManager.getLogger(GenerateRailsimInput.class);
 
 	// input osm and gtfs file
-	private static final String INPUT_OSM_FILE = "original_data/osm/switzerland_railways.osm";
+	// either the osm pbf file or an osm xml file which is already filtered, e.g. with osmosis
+	private static final String INPUT_OSM_FILE = "original_data/osm/switzerland-latest.osm.pbf";
 	private static final String INPUT_GTFS_FILE = "original_data/gtfs/gtfs_fp2024_2024-03-20_04-15.zip";
 	
 	// optional: trim the schedule
@@ -68,6 +75,21 @@ public final class GenerateRailsimInput {
     private static final Set<String> transitLineNamePrefixesToKeep = CollectionUtils.stringToSet("IC,IR,EC,RE");
     // private static final Set<String> transitLineNamePrefixesToKeep = null;
 
+	// optional: merge linear chains of rail links before the mapping, nodes within the radius around stops are kept
+	private static final boolean simplifyNetwork = false;
+	private static final double simplifyNetworkStopRadius = 200.;
+
+	// the transit lines are mapped in independent partitions in parallel, each partition maps on its own copy of the network
+	// fixed instead of the number of cores, so the mapped schedule does not depend on the machine and the copies fit into the heap
+	private static final int mappingPartitions = 4;
+
+	// optional: only map new or changed routes if a previously mapped schedule with the same osm network and mapping parameters exists,
+	// requires the stage cache
+	private static final boolean incrementalMapping = true;
+
+	// parameter of the PublicTransitMappingConfigGroup which is not part of the mapping fingerprint
+	private static final String PTM_NUM_OF_THREADS = "numOfThreads";
+
 	private static final String EPSG2056 = "EPSG:2056";
 	
 	// matsim input files to write
@@ -75,14 +97,28 @@ public final class GenerateRailsimInput {
 	private static final String VEHICLES_FINAL = MATSIM_INPUT + "transitVehicles.xml.gz";
 	private static final String NETWORK_FINAL = MATSIM_INPUT + "transitNetwork.xml.gz";
 	private static final String SCHEDULE_FINAL = MATSIM_INPUT + "transitSchedule.xml.gz";
+
+	// optional: binary snapshot of the network, schedule and vehicles with the railsim adjustments of the run config
+	private static final boolean writeSnapshot = true;
+	private static final String SNAPSHOT_FINAL = MATSIM_INPUT + "scenarioSnapshot.bin";
+	private static final String RUN_CONFIG = MATSIM_INPUT + "config.xml";
 	
-	// intermediate files
-	
+	// intermediate files, only written for debugging since all stages are passed on in memory
+	private static final boolean writeIntermediateFiles = false;
+
 	private static final String MATSIM_INPUT_TMP = "matsim_input/tmp/";
+
+	// optional: skip stages whose inputs and parameters did not change since the last run, writes the intermediate files of each stage
+	private static final boolean useStageCache = false;
+
+	private static final String STAGE_GTFS = "gtfsToSchedule";
+	private static final String STAGE_FILTER = "filterSchedule";
+	private static final String STAGE_OSM = "osm2MultimodalNetwork";
+	private static final String STAGE_MAPPING = "publicTransitMapper";
+	private static final String STAGE_MAPPING_BASE = "publicTransitMapperNetwork";
+	private static final String STAGE_TRIM = "trimSchedule";
     
-	private static final String PT2MATSIM_OSM_CONVERTER_CONFIG_DEFAULT = MATSIM_INPUT_TMP + "pt2matsim_osm_converter_config_default.xml";
 	private static final String PT2MATSIM_OSM_CONVERTER_CONFIG = MATSIM_INPUT_TMP + "pt2matsim_osm_converter_config.xml";
-	private static final String PT2MATSIM_MAPPER_CONFIG_DEFAULT = MATSIM_INPUT_TMP + "pt2matsim_mapper_config_default.xml";
 	private static final String PT2MATSIM_MAPPER_CONFIG = MATSIM_INPUT_TMP + "pt2matsim_mapper_config_adjusted.xml";
 
 	private static final String SCHEDULE_GTFS = MATSIM_INPUT_TMP + "schedule_gtfs.xml.gz";
@@ -91,6 +127,7 @@ public final class GenerateRailsimInput {
 	private static final String SCHEDULE_GTFS_FILTERED_MAPPED_TRIMMED = MATSIM_INPUT_TMP + "schedule_gtfs_filtered_mapped_trimmed.xml.gz";
 
 	private static final String NETWORK_OSM = MATSIM_INPUT_TMP + "network_osm.xml.gz";
+	private static final String NETWORK_OSM_SIMPLIFIED = MATSIM_INPUT_TMP + "network_osm_simplified.xml.gz";
 	private static final String NETWORK_OSM_MAPPED = MATSIM_INPUT_TMP + "network_osm_mapped.xml.gz";
 	
 	private static final String VEHICLES_GTFS = MATSIM_INPUT_TMP + "vehicles_gtfs.xml.gz";
@@ -101,121 +138,223 @@ public final class GenerateRailsimInput {
 		new File(MATSIM_INPUT).mkdirs();
 		new File(MATSIM_INPUT_TMP).mkdirs();
 
-		// 1. Convert a gtfs schedule to an unmapped transit schedule
-		gtfsToSchedule();
-		filterSchedule();
+		StageCache cache = new StageCache(MATSIM_INPUT_TMP, useStageCache);
+		OsmConverterConfigGroup osmConfig = createOsmConfig();
+		PublicTransitMappingConfigGroup ptmConfig = createMapperConfig();
 
-		// 2. Convert an osm map to a MATSim network
-		createOsmConfigFile( PT2MATSIM_OSM_CONVERTER_CONFIG );
-		Osm2MultimodalNetwork.main(new String[]{ PT2MATSIM_OSM_CONVERTER_CONFIG });
+		Set<String> sortedPrefixes = transitLineNamePrefixesToKeep == null ? null : new TreeSet<>(transitLineNamePrefixesToKeep);
+		String gtfsFingerprint = cache.fingerprint(STAGE_GTFS)
+				.addFile(INPUT_GTFS_FILE)
+				.addParam(EPSG2056)
+				.addParam(sortedPrefixes)
+				.compute();
+		String filterFingerprint = cache.fingerprint(STAGE_FILTER)
+				.addParam(gtfsFingerprint)
+				.addShapeFile(removeLinesOutsideThisArea)
+				.addParam(sortedPrefixes)
+				.compute();
+		String osmFingerprint = cache.fingerprint(STAGE_OSM)
+				.addFile(INPUT_OSM_FILE)
+				.addConfigGroup(osmConfig)
+				.compute();
+		// everything the mapping depends on except for the schedule
+		String mappingBaseFingerprint = cache.fingerprint(STAGE_MAPPING_BASE)
+				.addParam(osmFingerprint)
+				.addParam(simplifyNetwork)
+				.addParam(simplifyNetworkStopRadius)
+				.addParam(mappingPartitions)
+				// the number of threads depends on the machine, but not the mapped schedule
+				.addConfigGroup(ptmConfig, PTM_NUM_OF_THREADS)
+				.compute();
+		String mappingFingerprint = cache.fingerprint(STAGE_MAPPING)
+				.addParam(filterFingerprint)
+				.addParam(mappingBaseFingerprint)
+				.compute();
+		String trimFingerprint = cache.fingerprint(STAGE_TRIM)
+				.addParam(mappingFingerprint)
+				.addShapeFile(areaShpFileForTrimming)
+				.compute();
 
-		// 3. Map the schedule onto the network
-		createMapperConfigFile(PT2MATSIM_MAPPER_CONFIG);
-		PublicTransitMapper.main(new String[]{PT2MATSIM_MAPPER_CONFIG});
-		
-		trimSchedule();
-		writeFinalFiles();
-	}
+		// the unmapped network the mapping starts from, needed by the incremental mapping
+		String mappingBaseNetwork = simplifyNetwork ? NETWORK_OSM_SIMPLIFIED : NETWORK_OSM;
 
-	private static void writeFinalFiles() {
-		TransitSchedule schedule = ScheduleTools.readTransitSchedule(SCHEDULE_GTFS_FILTERED_MAPPED_TRIMMED);
-		Network network = NetworkTools.readNetwork(NETWORK_OSM_MAPPED);
-		Vehicles vehicles = ScheduleTools.readVehicles(VEHICLES_GTFS_TRIMMED);
-				
-		ScheduleTools.writeTransitSchedule(schedule, SCHEDULE_FINAL);	
-		NetworkTools.writeNetwork(network, NETWORK_FINAL);
-		ScheduleTools.writeVehicles(vehicles, VEHICLES_FINAL);
-	}
+		TransitSchedule schedule;
+		Network network;
+		Vehicles vehicles;
 
-	private static void trimSchedule() throws MalformedURLException {
-		TransitSchedule schedule = ScheduleTools.readTransitSchedule(SCHEDULE_GTFS_FILTERED_MAPPED);
-		Network network = NetworkTools.readNetwork(NETWORK_OSM_MAPPED);
-		Vehicles vehicles = ScheduleTools.readVehicles(VEHICLES_GTFS);
-		
-		if (areaShpFileForTrimming != null) {
-			List<PreparedGeometry> geometries = ShpGeometryUtils.loadPreparedGeometries(new File(areaShpFileForTrimming).toURI().toURL());
+		if (cache.isUpToDate(STAGE_TRIM, trimFingerprint, SCHEDULE_GTFS_FILTERED_MAPPED_TRIMMED, VEHICLES_GTFS_TRIMMED, NETWORK_OSM_MAPPED)) {
+			schedule = ScheduleTools.readTransitSchedule(SCHEDULE_GTFS_FILTERED_MAPPED_TRIMMED);
+			vehicles = ScheduleTools.readVehicles(VEHICLES_GTFS_TRIMMED);
+			network = NetworkTools.readNetwork(NETWORK_OSM_MAPPED);
 
-			for (TransitLine transitLine : new HashSet<>(schedule.getTransitLines().values())) {
-				for(TransitRoute transitRoute : new HashSet<>(transitLine.getRoutes().values())) {
-					if (routeHasLinkInArea(transitRoute, network, geometries)) {
-						// keep
+		} else {
+			if (cache.isUpToDate(STAGE_MAPPING, mappingFingerprint, SCHEDULE_GTFS_FILTERED_MAPPED, VEHICLES_GTFS, NETWORK_OSM_MAPPED)) {
+				schedule = ScheduleTools.readTransitSchedule(SCHEDULE_GTFS_FILTERED_MAPPED);
+				vehicles = ScheduleTools.readVehicles(VEHICLES_GTFS);
+				network = NetworkTools.readNetwork(NETWORK_OSM_MAPPED);
+
+			} else {
+				// 1. Convert a gtfs schedule to an unmapped transit schedule
+				if (cache.isUpToDate(STAGE_FILTER, filterFingerprint, SCHEDULE_GTFS_FILTERED, VEHICLES_GTFS)) {
+					schedule = ScheduleTools.readTransitSchedule(SCHEDULE_GTFS_FILTERED);
+					vehicles = ScheduleTools.readVehicles(VEHICLES_GTFS);
+				} else {
+					if (cache.isUpToDate(STAGE_GTFS, gtfsFingerprint, SCHEDULE_GTFS)) {
+						schedule = ScheduleTools.readTransitSchedule(SCHEDULE_GTFS);
 					} else {
-						// remove
-						transitLine.removeRoute(transitRoute);
-						log.info("Route " + transitRoute + " removed.");
+						cache.invalidate(STAGE_GTFS);
+						schedule = gtfsToSchedule();
+						writeIntermediateSchedule(schedule, SCHEDULE_GTFS);
+						cache.markDone(STAGE_GTFS, gtfsFingerprint);
 					}
+
+					cache.invalidate(STAGE_FILTER);
+					filterSchedule(schedule);
+					vehicles = ScheduleTools.createVehicles(schedule);
+					writeIntermediateSchedule(schedule, SCHEDULE_GTFS_FILTERED);
+					writeIntermediateVehicles(vehicles, VEHICLES_GTFS);
+					cache.markDone(STAGE_FILTER, filterFingerprint);
 				}
 
+				if (incrementalMapping && cache.isUpToDate(STAGE_MAPPING_BASE, mappingBaseFingerprint, SCHEDULE_GTFS_FILTERED_MAPPED, NETWORK_OSM_MAPPED,
+						mappingBaseNetwork)) {
+					// 2. and 3. Reuse the previously mapped routes, only map the new or changed routes onto the unmapped network
+					TransitSchedule previousSchedule = ScheduleTools.readTransitSchedule(SCHEDULE_GTFS_FILTERED_MAPPED);
+					Network previousNetwork = NetworkTools.readNetwork(NETWORK_OSM_MAPPED);
+					network = NetworkTools.readNetwork(mappingBaseNetwork);
+					cache.invalidate(STAGE_MAPPING);
+					cache.invalidate(STAGE_MAPPING_BASE);
+					network = new IncrementalScheduleMapper(ptmConfig, mappingPartitions).run(schedule, previousSchedule, previousNetwork, network);
+
+				} else {
+					// 2. Convert an osm map to a MATSim network
+					if (cache.isUpToDate(STAGE_OSM, osmFingerprint, NETWORK_OSM)) {
+						network = NetworkTools.readNetwork(NETWORK_OSM);
+					} else {
+						cache.invalidate(STAGE_OSM);
+						network = osmToNetwork(osmConfig);
+						writeIntermediateNetwork(network, NETWORK_OSM);
+						cache.markDone(STAGE_OSM, osmFingerprint);
+					}
+
+					// 3. Map the schedule onto the network
+					cache.invalidate(STAGE_MAPPING);
+					cache.invalidate(STAGE_MAPPING_BASE);
+					if (simplifyNetwork) {
+						RailNetworkSimplifier simplifier = new RailNetworkSimplifier();
+						simplifier.keepNodesAroundStops(network, schedule, simplifyNetworkStopRadius);
+						simplifier.run(network);
+						writeIntermediateNetwork(network, NETWORK_OSM_SIMPLIFIED);
+					}
+					new PartitionedScheduleMapper(ptmConfig, mappingPartitions).run(schedule, network);
+				}
+				writeIntermediateSchedule(schedule, SCHEDULE_GTFS_FILTERED_MAPPED);
+				writeIntermediateNetwork(network, NETWORK_OSM_MAPPED);
+				cache.markDone(STAGE_MAPPING, mappingFingerprint);
+				cache.markDone(STAGE_MAPPING_BASE, mappingBaseFingerprint);
 			}
+
+			cache.invalidate(STAGE_TRIM);
+			trimSchedule(schedule, network, vehicles);
+			writeIntermediateSchedule(schedule, SCHEDULE_GTFS_FILTERED_MAPPED_TRIMMED);
+			writeIntermediateVehicles(vehicles, VEHICLES_GTFS_TRIMMED);
+			cache.markDone(STAGE_TRIM, trimFingerprint);
+		}
+
+		writeFinalFiles(schedule, network, vehicles);
+	}
+
+	private static void writeFinalFiles(TransitSchedule schedule, Network network, Vehicles vehicles) {
+		ScheduleTools.writeTransitSchedule(schedule, SCHEDULE_FINAL);
+		NetworkTools.writeNetwork(network, NETWORK_FINAL);
+		ScheduleTools.writeVehicles(vehicles, VEHICLES_FINAL);
+
+		if (writeSnapshot) {
+			SwitzerlandRailwayConfigGroup railwayConfig = new SwitzerlandRailwayConfigGroup();
+			Config runConfig = ConfigUtils.loadConfig(RUN_CONFIG, railwayConfig);
+			RunSwitzerlandRailway.adjustVehicles(schedule, vehicles, RunSwitzerlandRailway.loadVehicleTypes(runConfig));
+			RunSwitzerlandRailway.adjustNetwork(network, schedule, railwayConfig);
+			ScenarioSnapshot.write(SNAPSHOT_FINAL, runConfig, network, schedule, vehicles);
+		}
+	}
+
+	private static void writeIntermediateSchedule(TransitSchedule schedule, String file) {
+		if (writeIntermediateFiles || useStageCache) {
+			ScheduleTools.writeTransitSchedule(schedule, file);
+		}
+	}
+
+	private static void writeIntermediateNetwork(Network network, String file) {
+		if (writeIntermediateFiles || useStageCache) {
+			NetworkTools.writeNetwork(network, file);
+		}
+	}
+
+	private static void writeIntermediateVehicles(Vehicles vehicles, String file) {
+		if (writeIntermediateFiles || useStageCache) {
+			ScheduleTools.writeVehicles(vehicles, file);
+		}
+	}
+
+	public static void trimSchedule(TransitSchedule schedule, Network network, Vehicles vehicles) throws MalformedURLException {
+		if (areaShpFileForTrimming != null) {
+			BitSet linksInArea = AreaFilter.fromShapeFile(areaShpFileForTrimming).getRouteLinksInArea(schedule, network);
+			removeRoutes(schedule, transitRoute -> AreaFilter.routeHasLinkInArea(transitRoute, linksInArea), true);
 		}
 		
 		// remove transit lines without routes
-		for (TransitLine transitLine : new HashSet<>(schedule.getTransitLines().values())) {
-			if (transitLine.getRoutes().size() == 0) {
-				schedule.removeTransitLine(transitLine);
-				log.info("Remove line " + transitLine.getId());
-			}
+		List<TransitLine> emptyLines = schedule.getTransitLines().values().stream()
+				.filter(transitLine -> transitLine.getRoutes().isEmpty())
+				.toList();
+		for (TransitLine transitLine : emptyLines) {
+			schedule.removeTransitLine(transitLine);
+			log.info("Remove line " + transitLine.getId());
 		}
 		
 		ScheduleCleaner.cleanVehicles(schedule, vehicles);
 		ScheduleCleaner.removeNotUsedStopFacilities(schedule);
 		ScheduleCleaner.removeNotUsedMinimalTransferTimes(schedule);
-		ScheduleTools.writeTransitSchedule(schedule, SCHEDULE_GTFS_FILTERED_MAPPED_TRIMMED);
-		ScheduleTools.writeVehicles(vehicles, VEHICLES_GTFS_TRIMMED);
-	}
-	
-	private static boolean routeHasLinkInArea(TransitRoute route, Network network, List<PreparedGeometry> geometries) {
-        for (Id<Link> id : route.getRoute().getLinkIds()) {
-        	Link link = network.getLinks().get(id);
-        	if (ShpGeometryUtils.isCoordInPreparedGeometries(link.getCoord(), geometries)) {
-                return true;
-            }
-        }   
-		return false;	
 	}
 	
-	private static boolean routeHasStopInArea(TransitRoute route, List<PreparedGeometry> geometries) {
-		 for (TransitRouteStop stop : route.getStops()) {
-	        	if (ShpGeometryUtils.isCoordInPreparedGeometries(stop.getStopFacility().getCoord(), geometries)) {
-	                return true;
-	            }
-	        }   
-			return false;	
-	}
-	
-	public static void filterSchedule() throws MalformedURLException {
-		TransitSchedule schedule = ScheduleTools.readTransitSchedule(SCHEDULE_GTFS);
-
-		// remove non-rail transit lines, e.g. buses, light-rail, ...
-		for(TransitLine transitLine : new HashSet<>(schedule.getTransitLines().values())) {
-			for(TransitRoute transitRoute : new HashSet<>(transitLine.getRoutes().values())) {
-				if(!transitRoute.getTransportMode().equals("rail")) {
-					transitLine.removeRoute(transitRoute);
-				}
+	/**
+	 * Evaluates the routes in parallel and removes the routes which should not be kept.
+	 */
+	private static void removeRoutes(TransitSchedule schedule, Predicate<TransitRoute> keep, boolean logRemovedRoutes) {
+		List<Tuple<TransitLine, TransitRoute>> routes = new ArrayList<>();
+		for (TransitLine transitLine : schedule.getTransitLines().values()) {
+			for (TransitRoute transitRoute : transitLine.getRoutes().values()) {
+				routes.add(new Tuple<>(transitLine, transitRoute));
 			}
 		}
-		
+		List<Tuple<TransitLine, TransitRoute>> routesToRemove = routes.parallelStream()
+				.filter(lineAndRoute -> !keep.test(lineAndRoute.getSecond()))
+				.toList();
+		for (Tuple<TransitLine, TransitRoute> lineAndRoute : routesToRemove) {
+			lineAndRoute.getFirst().removeRoute(lineAndRoute.getSecond());
+			if (logRemovedRoutes) {
+				log.info("Route " + lineAndRoute.getSecond() + " removed.");
+			}
+		}
+	}
+	
+	public static void filterSchedule(TransitSchedule schedule) throws MalformedURLException {
+
+		// remove non-rail transit lines, e.g. buses, light-rail, ... GtfsRailScheduleReader already skips them, but other
+		// sources of the schedule, e.g. HAFAS, do not
+		removeRoutes(schedule, transitRoute -> transitRoute.getTransportMode().equals("rail"), false);
+
 		// remove lines outside the provided area, e.g. Switzerland
 		if (removeLinesOutsideThisArea != null) {
-			List<PreparedGeometry> geometries = ShpGeometryUtils.loadPreparedGeometries(new File(removeLinesOutsideThisArea).toURI().toURL());
-
-			for (TransitLine transitLine : new HashSet<>(schedule.getTransitLines().values())) {
-				for(TransitRoute transitRoute : new HashSet<>(transitLine.getRoutes().values())) {
-					if (routeHasStopInArea(transitRoute, geometries)) {
-						// keep
-					} else {
-						// remove
-						transitLine.removeRoute(transitRoute);
-					}
-				}
-			}
+			BitSet stopsInArea = AreaFilter.fromShapeFile(removeLinesOutsideThisArea).getStopFacilitiesInArea(schedule);
+			removeRoutes(schedule, transitRoute -> AreaFilter.routeHasStopInArea(transitRoute, stopsInArea), false);
 		}
 		
 		if (transitLineNamePrefixesToKeep == null || transitLineNamePrefixesToKeep.isEmpty()) {
 			// do not filter by line name prefix
 			
 		} else {
-			for(TransitLine transitLine : new HashSet<>(schedule.getTransitLines().values())) {
+			// only the routes are removed, so the lines can be iterated without a copy
+			for(TransitLine transitLine : schedule.getTransitLines().values()) {
 				boolean lineToKeep = false;
 				for (String prefix : transitLineNamePrefixesToKeep) {
 					if (transitLine.getName().startsWith(prefix)) {
@@ -228,7 +367,7 @@ public final class GenerateRailsimInput {
 					// keep			
 				} else {
 					// remove		
-					for(TransitRoute transitRoute : new HashSet<>(transitLine.getRoutes().values())) {
+					for(TransitRoute transitRoute : List.copyOf(transitLine.getRoutes().values())) {
 						transitLine.removeRoute(transitRoute);
 					}
 				}
@@ -236,30 +375,18 @@ public final class GenerateRailsimInput {
 		}
 		
 		ScheduleCleaner.removeNotUsedStopFacilities(schedule);
-		ScheduleTools.writeTransitSchedule(schedule, SCHEDULE_GTFS_FILTERED);
 	}
 
 	/**
 	 * 	1. A GTFS or HAFAS Schedule or a OSM map with information on public transport
 	 * 	has to be converted to an unmapped MATSim Transit Schedule.
 	 *
-	 * 	Here as a first example, the GTFS-schedule of GrandRiverTransit, Waterloo-Area, Canada, is converted.
+	 * 	Here, the rail trips of one service day of the Swiss GTFS feed are converted with GtfsRailScheduleReader.
 	 */
-	public static void gtfsToSchedule() {
-		String[] gtfsConverterArgs = new String[]{
-				// [0] gtfs zip file
-				INPUT_GTFS_FILE,
-				// [1] which service ids should be used. One of the following:
-				//		dayWithMostTrips, date in the format yyyymmdd, , dayWithMostServices, all
-				"dayWithMostTrips",
-				// [2] the output coordinate system. Use WGS84 for no transformation.
-				EPSG2056,
-				// [3] output transit schedule file
-				SCHEDULE_GTFS,
-				// [4] output default vehicles file (optional)
-				VEHICLES_GTFS,
-		};
-		Gtfs2TransitSchedule.main(gtfsConverterArgs);
+	public static TransitSchedule gtfsToSchedule() {
+		// which service day should be used: dayWithMostTrips or a date in the format yyyymmdd
+		// the rail and line name filters are already applied while reading, this keeps stop_times.txt small in memory
+		return new GtfsRailScheduleReader(INPUT_GTFS_FILE, EPSG2056, transitLineNamePrefixesToKeep).read(GtfsRailScheduleReader.DAY_WITH_MOST_TRIPS);
 	}
 
 	/**
@@ -267,37 +394,74 @@ public final class GenerateRailsimInput {
 	 * the PT2MATSim package provides the possibility to use OSM-maps as data-input.
 	 *
 	 */
-	public static void createOsmConfigFile(String configFile) {
-		CreateDefaultOsmConfig.main(new String[]{PT2MATSIM_OSM_CONVERTER_CONFIG_DEFAULT});
-		Config osmConverterConfig = ConfigUtils.loadConfig(
-				PT2MATSIM_OSM_CONVERTER_CONFIG_DEFAULT,
-				new OsmConverterConfigGroup());
-		OsmConverterConfigGroup osmConfig = ConfigUtils.addOrGetModule(osmConverterConfig, OsmConverterConfigGroup.class);
+	public static OsmConverterConfigGroup createOsmConfig() {
+		OsmConverterConfigGroup osmConfig = OsmConverterConfigGroup.createDefaultConfig();
 		osmConfig.setOsmFile(INPUT_OSM_FILE);
 		osmConfig.setOutputCoordinateSystem(EPSG2056);
 		osmConfig.setOutputNetworkFile(NETWORK_OSM);
 		osmConfig.setKeepPaths(true);
-		new ConfigWriter(osmConverterConfig).write(configFile);
+		writeIntermediateConfig(osmConfig, PT2MATSIM_OSM_CONVERTER_CONFIG);
+		return osmConfig;
+	}
+
+	public static Network osmToNetwork(OsmConverterConfigGroup osmConfig) {
+		OsmData osmData = new OsmDataImpl();
+		if (osmConfig.getOsmFile().endsWith(".pbf")) {
+			OsmPbfRailwayReader.readInto(osmConfig.getOsmFile(), osmData);
+		} else {
+			new OsmFileReader(osmData).readFile(osmConfig.getOsmFile());
+		}
+		OsmMultimodalNetworkConverter converter = new OsmMultimodalNetworkConverter(osmData);
+		converter.convert(osmConfig);
+		Network network = converter.getNetwork();
+		setSignals(osmData, network);
+		return network;
 	}
 
 	/**
-	 * 	3. The core of the PT2MATSim-package is the mapping process of the schedule to the network.
+	 * Marks the network nodes of the osm nodes tagged with <code>railway=signal</code>, the network nodes keep the
+	 * osm ids since the paths are kept.
 	 */
-	public static void createMapperConfigFile(String configFile) {
-		CreateDefaultPTMapperConfig.main(new String[]{ PT2MATSIM_MAPPER_CONFIG_DEFAULT});
-		Config config = ConfigUtils.loadConfig(
-				PT2MATSIM_MAPPER_CONFIG_DEFAULT,
-				PublicTransitMappingConfigGroup.createDefaultConfig());
-		PublicTransitMappingConfigGroup ptmConfig = ConfigUtils.addOrGetModule(config, PublicTransitMappingConfigGroup.class);
+	private static void setSignals(OsmData osmData, Network network) {
+		int signals = 0;
+		for (Osm.Node osmNode : osmData.getNodes().values()) {
+			if ("signal".equals(osmNode.getTags().get("railway"))) {
+				Node node = network.getNodes().get(Id.createNodeId(osmNode.getId().toString()));
+				if (node != null) {
+					node.getAttributes().putAttribute(RunSwitzerlandRailway.NODE_ATTRIBUTE_SIGNAL, true);
+					signals++;
+				}
+			}
+		}
+		log.info("Marked " + signals + " signal nodes.");
+	}
 
+	/**
+	 * 	3. The core of the PT2MATSim-package is the mapping process of the schedule to the network.
+	 */
+	public static PublicTransitMappingConfigGroup createMapperConfig() {
+		PublicTransitMappingConfigGroup ptmConfig = PublicTransitMappingConfigGroup.createDefaultConfig();
 		ptmConfig.setInputNetworkFile(NETWORK_OSM);
 		ptmConfig.setOutputNetworkFile(NETWORK_OSM_MAPPED);
 		ptmConfig.setOutputScheduleFile(SCHEDULE_GTFS_FILTERED_MAPPED);
 		ptmConfig.setInputScheduleFile(SCHEDULE_GTFS_FILTERED);
 		ptmConfig.setModesToKeepOnCleanUp(CollectionUtils.stringToSet("rail"));
 		ptmConfig.setScheduleFreespeedModes(CollectionUtils.stringToSet("rail"));
-		new ConfigWriter(config).write(configFile);
-		
+		// divided between the mapping partitions which run at the same time
+		ptmConfig.setNumOfThreads(Runtime.getRuntime().availableProcessors());
+		writeIntermediateConfig(ptmConfig, PT2MATSIM_MAPPER_CONFIG);
+		return ptmConfig;
+	}
+
+	/**
+	 * The config files are only needed to re-run a single pt2matsim step by hand, e.g. Osm2MultimodalNetwork or PublicTransitMapper.
+	 */
+	private static void writeIntermediateConfig(ConfigGroup configGroup, String configFile) {
+		if (writeIntermediateFiles) {
+			Config config = ConfigUtils.createConfig();
+			config.addModule(configGroup);
+			new ConfigWriter(config).write(configFile);
+		}
 	}
 
-}
\ No newline at end of file
+}
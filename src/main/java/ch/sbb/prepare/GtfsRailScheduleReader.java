@@ -0,0 +1,528 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.prepare;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.core.utils.geometry.CoordinateTransformation;
+import org.matsim.core.utils.geometry.transformations.TransformationFactory;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.pt2matsim.tools.ScheduleTools;
+
+/**
+ * Converts the rail trips of a single service day of a GTFS zip file into an unmapped transit schedule.
+ *
+ * In contrast to pt2matsim's Gtfs2TransitSchedule, the service day, the rail route types and the line name prefixes are
+ * applied while the files are read. stop_times.txt is streamed from the zip file and only the rows of the selected
+ * trips are kept, so the memory use depends on the number of selected trips rather than the size of the feed.
+ *
+ * Stop times without arrival and departure time (stops which are not timepoints) are interpolated by the beeline
+ * distance between the neighbouring stops with times. Trips whose first or last stop has no time are skipped.
+ * Frequency based trips (frequencies.txt) are not supported.
+ */
+public final class GtfsRailScheduleReader {
+	private static final Logger log = LogManager.getLogger(GtfsRailScheduleReader.class);
+
+	public static final String DAY_WITH_MOST_TRIPS = "dayWithMostTrips";
+	public static final String LINE_ATTRIBUTE_ROUTE_TYPE = "gtfsRouteType";
+
+	private static final String MODE = "rail";
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+	// arrival and departure of a stop time which is not a timepoint
+	private static final int UNDEFINED_TIME = Integer.MIN_VALUE;
+
+	private final String gtfsZipFile;
+	private final CoordinateTransformation transformation;
+	private final Set<String> linePrefixesToKeep;
+
+	private final Map<String, GtfsRoute> routes = new HashMap<>();
+	private final Map<String, Trip> trips = new HashMap<>();
+	private final Map<String, Integer> stopIndices = new HashMap<>();
+	private final List<String> stopIds = new ArrayList<>();
+
+	/**
+	 * @param linePrefixesToKeep only routes whose short name starts with one of the prefixes are read, all if null or empty.
+	 */
+	public GtfsRailScheduleReader(String gtfsZipFile, String outputCoordinateSystem, Set<String> linePrefixesToKeep) {
+		this.gtfsZipFile = gtfsZipFile;
+		this.transformation = TransformationFactory.getCoordinateTransformation(TransformationFactory.WGS84, outputCoordinateSystem);
+		this.linePrefixesToKeep = linePrefixesToKeep;
+	}
+
+	/**
+	 * @param serviceDay a date in the format yyyymmdd or {@value #DAY_WITH_MOST_TRIPS}
+	 */
+	public TransitSchedule read(String serviceDay) {
+		try (ZipFile zip = new ZipFile(this.gtfsZipFile)) {
+			if (zip.getEntry("frequencies.txt") != null) {
+				log.warn("frequencies.txt is not supported and ignored.");
+			}
+			readRoutes(zip);
+			Map<String, Integer> tripsPerService = countTripsPerService(zip);
+			Map<String, Set<LocalDate>> serviceDates = readServiceDates(zip, tripsPerService.keySet());
+			Set<String> activeServices = getActiveServices(serviceDates, tripsPerService, serviceDay);
+			readTrips(zip, activeServices);
+			readStopTimes(zip);
+			return createSchedule(readStops(zip));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void readRoutes(ZipFile zip) throws IOException {
+		readCsv(zip, "routes.txt", row -> {
+			int routeType = Integer.parseInt(row.get("route_type"));
+			String name = row.get("route_short_name");
+			if (name == null || name.isEmpty()) {
+				name = row.get("route_long_name");
+			}
+			if (isRail(routeType) && hasPrefixToKeep(name)) {
+				String routeId = row.get("route_id");
+				this.routes.put(routeId, new GtfsRoute(routeId, name, routeType));
+			}
+		});
+		log.info("Read " + this.routes.size() + " rail routes.");
+	}
+
+	/**
+	 * Basic route type 2 and the extended railway route types 100-117.
+	 */
+	private static boolean isRail(int routeType) {
+		return routeType == 2 || (routeType >= 100 && routeType <= 117);
+	}
+
+	private boolean hasPrefixToKeep(String name) {
+		if (this.linePrefixesToKeep == null || this.linePrefixesToKeep.isEmpty()) {
+			return true;
+		}
+		for (String prefix : this.linePrefixesToKeep) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Only the trips of the selected routes are counted.
+	 */
+	private Map<String, Integer> countTripsPerService(ZipFile zip) throws IOException {
+		Map<String, Integer> tripsPerService = new HashMap<>();
+		readCsv(zip, "trips.txt", row -> {
+			if (this.routes.containsKey(row.get("route_id"))) {
+				tripsPerService.merge(row.get("service_id"), 1, Integer::sum);
+			}
+		});
+		return tripsPerService;
+	}
+
+	/**
+	 * Only the dates of the given services are read, the calendars of the other services can be large.
+	 */
+	private static Map<String, Set<LocalDate>> readServiceDates(ZipFile zip, Set<String> services) throws IOException {
+		Map<String, Set<LocalDate>> serviceDates = new HashMap<>();
+		if (zip.getEntry("calendar.txt") != null) {
+			String[] weekdays = {"monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday"};
+			readCsv(zip, "calendar.txt", row -> {
+				if (!services.contains(row.get("service_id"))) {
+					return;
+				}
+				Set<LocalDate> dates = serviceDates.computeIfAbsent(row.get("service_id"), k -> new HashSet<>());
+				LocalDate end = LocalDate.parse(row.get("end_date"), DATE_FORMAT);
+				for (LocalDate date = LocalDate.parse(row.get("start_date"), DATE_FORMAT); !date.isAfter(end); date = date.plusDays(1)) {
+					DayOfWeek dayOfWeek = date.getDayOfWeek();
+					if ("1".equals(row.get(weekdays[dayOfWeek.getValue() - 1]))) {
+						dates.add(date);
+					}
+				}
+			});
+		}
+		if (zip.getEntry("calendar_dates.txt") != null) {
+			readCsv(zip, "calendar_dates.txt", row -> {
+				if (!services.contains(row.get("service_id"))) {
+					return;
+				}
+				Set<LocalDate> dates = serviceDates.computeIfAbsent(row.get("service_id"), k -> new HashSet<>());
+				LocalDate date = LocalDate.parse(row.get("date"), DATE_FORMAT);
+				// 1: service added, 2: service removed
+				if ("1".equals(row.get("exception_type"))) {
+					dates.add(date);
+				} else {
+					dates.remove(date);
+				}
+			});
+		}
+		return serviceDates;
+	}
+
+	private Set<String> getActiveServices(Map<String, Set<LocalDate>> serviceDates, Map<String, Integer> tripsPerService, String serviceDay) {
+		LocalDate day;
+		if (DAY_WITH_MOST_TRIPS.equals(serviceDay)) {
+			Map<LocalDate, Integer> tripsPerDay = new TreeMap<>();
+			tripsPerService.forEach((serviceId, tripCount) -> {
+				for (LocalDate date : serviceDates.getOrDefault(serviceId, Set.of())) {
+					tripsPerDay.merge(date, tripCount, Integer::sum);
+				}
+			});
+			day = tripsPerDay.entrySet().stream()
+					.max(Map.Entry.comparingByValue())
+					.map(Map.Entry::getKey)
+					.orElseThrow(() -> new IllegalStateException("No trips found in " + this.gtfsZipFile));
+			log.info("Day with most trips: " + day + " with " + tripsPerDay.get(day) + " trips.");
+		} else {
+			day = LocalDate.parse(serviceDay, DATE_FORMAT);
+		}
+
+		Set<String> activeServices = new HashSet<>();
+		serviceDates.forEach((serviceId, dates) -> {
+			if (dates.contains(day)) {
+				activeServices.add(serviceId);
+			}
+		});
+		return activeServices;
+	}
+
+	private void readTrips(ZipFile zip, Set<String> activeServices) throws IOException {
+		readCsv(zip, "trips.txt", row -> {
+			GtfsRoute route = this.routes.get(row.get("route_id"));
+			if (route != null && activeServices.contains(row.get("service_id"))) {
+				String tripId = row.get("trip_id");
+				this.trips.put(tripId, new Trip(tripId, route));
+			}
+		});
+		log.info("Read " + this.trips.size() + " trips on the service day.");
+	}
+
+	private void readStopTimes(ZipFile zip) throws IOException {
+		readCsv(zip, "stop_times.txt", row -> {
+			Trip trip = this.trips.get(row.get("trip_id"));
+			if (trip != null) {
+				String stopId = row.get("stop_id");
+				Integer stopIndex = this.stopIndices.get(stopId);
+				if (stopIndex == null) {
+					stopIndex = this.stopIds.size();
+					this.stopIndices.put(stopId, stopIndex);
+					this.stopIds.add(stopId);
+				}
+				String arrival = row.get("arrival_time");
+				String departure = row.get("departure_time");
+				if (arrival.isEmpty()) {
+					arrival = departure;
+				}
+				if (departure.isEmpty()) {
+					departure = arrival;
+				}
+				// the times of stops which are not timepoints are interpolated once the stop coordinates are known
+				trip.add(Integer.parseInt(row.get("stop_sequence")), stopIndex,
+						arrival.isEmpty() ? UNDEFINED_TIME : parseTime(arrival), departure.isEmpty() ? UNDEFINED_TIME : parseTime(departure));
+			}
+		});
+	}
+
+	private TransitStopFacility[] readStops(ZipFile zip) throws IOException {
+		TransitScheduleFactory factory = ScheduleTools.createSchedule().getFactory();
+		TransitStopFacility[] stops = new TransitStopFacility[this.stopIds.size()];
+		readCsv(zip, "stops.txt", row -> {
+			Integer stopIndex = this.stopIndices.get(row.get("stop_id"));
+			if (stopIndex != null) {
+				Coord coord = this.transformation.transform(new Coord(Double.parseDouble(row.get("stop_lon")), Double.parseDouble(row.get("stop_lat"))));
+				TransitStopFacility stop = factory.createTransitStopFacility(Id.create(row.get("stop_id"), TransitStopFacility.class), coord, false);
+				stop.setName(row.get("stop_name"));
+				stops[stopIndex] = stop;
+			}
+		});
+		return stops;
+	}
+
+	private TransitSchedule createSchedule(TransitStopFacility[] stops) {
+		TransitSchedule schedule = ScheduleTools.createSchedule();
+		TransitScheduleFactory factory = schedule.getFactory();
+		for (TransitStopFacility stop : stops) {
+			if (stop == null) {
+				throw new IllegalStateException("stop_times.txt references a stop which is not in stops.txt.");
+			}
+			schedule.addStopFacility(stop);
+		}
+
+		// trips with the same stops and offsets become departures of the same transit route
+		Map<GtfsRoute, Map<String, TransitRoute>> transitRoutes = new LinkedHashMap<>();
+		List<Trip> sortedTrips = new ArrayList<>(this.trips.values());
+		sortedTrips.sort((a, b) -> a.id.compareTo(b.id));
+		int departureCount = 0;
+		int skippedTrips = 0;
+		for (Trip trip : sortedTrips) {
+			if (trip.size < 2) {
+				continue;
+			}
+			trip.sortBySequence();
+			if (!trip.interpolateTimes(stops)) {
+				skippedTrips++;
+				continue;
+			}
+			int startTime = trip.departures[0];
+			StringBuilder key = new StringBuilder();
+			for (int i = 0; i < trip.size; i++) {
+				key.append(trip.stops[i]).append(':').append(trip.arrivals[i] - startTime).append(':').append(trip.departures[i] - startTime).append(';');
+			}
+			Map<String, TransitRoute> routesOfLine = transitRoutes.computeIfAbsent(trip.route, k -> new LinkedHashMap<>());
+			TransitRoute transitRoute = routesOfLine.get(key.toString());
+			if (transitRoute == null) {
+				List<TransitRouteStop> routeStops = new ArrayList<>(trip.size);
+				for (int i = 0; i < trip.size; i++) {
+					TransitRouteStop routeStop = factory.createTransitRouteStop(stops[trip.stops[i]], trip.arrivals[i] - startTime, trip.departures[i] - startTime);
+					routeStop.setAwaitDepartureTime(true);
+					routeStops.add(routeStop);
+				}
+				Id<TransitRoute> routeId = Id.create(trip.route.id + "_" + routesOfLine.size(), TransitRoute.class);
+				transitRoute = factory.createTransitRoute(routeId, null, routeStops, MODE);
+				routesOfLine.put(key.toString(), transitRoute);
+			}
+			transitRoute.addDeparture(factory.createDeparture(Id.create(trip.id, Departure.class), startTime));
+			departureCount++;
+		}
+
+		for (Map.Entry<GtfsRoute, Map<String, TransitRoute>> e : transitRoutes.entrySet()) {
+			GtfsRoute route = e.getKey();
+			TransitLine line = factory.createTransitLine(Id.create(route.id, TransitLine.class));
+			line.setName(route.name);
+			line.getAttributes().putAttribute(LINE_ATTRIBUTE_ROUTE_TYPE, route.type);
+			e.getValue().values().forEach(line::addRoute);
+			schedule.addTransitLine(line);
+		}
+		if (skippedTrips > 0) {
+			log.warn("Skipped " + skippedTrips + " trips without time at their first or last stop.");
+		}
+		log.info("Created " + schedule.getTransitLines().size() + " transit lines with " + departureCount + " departures.");
+		return schedule;
+	}
+
+	/**
+	 * Parses a GTFS time, which may be after midnight, e.g. 25:10:00.
+	 */
+	private static int parseTime(String time) {
+		String[] parts = time.trim().split(":");
+		return Integer.parseInt(parts[0]) * 3600 + Integer.parseInt(parts[1]) * 60 + Integer.parseInt(parts[2]);
+	}
+
+	private static void readCsv(ZipFile zip, String fileName, Consumer<CsvRow> rowConsumer) throws IOException {
+		ZipEntry entry = zip.getEntry(fileName);
+		if (entry == null) {
+			throw new IOException(fileName + " not found in GTFS file.");
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8), 1 << 16)) {
+			String header = reader.readLine();
+			if (header == null) {
+				return;
+			}
+			// remove byte order mark
+			if (header.startsWith("\uFEFF")) {
+				header = header.substring(1);
+			}
+			CsvRow row = new CsvRow(splitCsvLine(header));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					row.values = splitCsvLine(line);
+					rowConsumer.accept(row);
+				}
+			}
+		}
+	}
+
+	private static String[] splitCsvLine(String line) {
+		if (line.indexOf('"') < 0) {
+			return line.split(",", -1);
+		}
+		List<String> values = new ArrayList<>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					value.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					value.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				values.add(value.toString());
+				value.setLength(0);
+			} else {
+				value.append(c);
+			}
+		}
+		values.add(value.toString());
+		return values.toArray(new String[0]);
+	}
+
+	private static final class CsvRow {
+		private final Map<String, Integer> columns = new HashMap<>();
+		private String[] values;
+
+		private CsvRow(String[] header) {
+			for (int i = 0; i < header.length; i++) {
+				this.columns.put(header[i].trim(), i);
+			}
+		}
+
+		/**
+		 * @return the value of the column, or null if the column does not exist.
+		 */
+		private String get(String column) {
+			Integer index = this.columns.get(column);
+			if (index == null || index >= this.values.length) {
+				return null;
+			}
+			return this.values[index].trim();
+		}
+	}
+
+	private record GtfsRoute(String id, String name, int type) {
+	}
+
+	private static final class Trip {
+		private final String id;
+		private final GtfsRoute route;
+		private int[] sequences = new int[8];
+		private int[] stops = new int[8];
+		private int[] arrivals = new int[8];
+		private int[] departures = new int[8];
+		private int size = 0;
+
+		private Trip(String id, GtfsRoute route) {
+			this.id = id;
+			this.route = route;
+		}
+
+		private void add(int sequence, int stop, int arrival, int departure) {
+			if (this.size == this.stops.length) {
+				this.sequences = Arrays.copyOf(this.sequences, 2 * this.size);
+				this.stops = Arrays.copyOf(this.stops, 2 * this.size);
+				this.arrivals = Arrays.copyOf(this.arrivals, 2 * this.size);
+				this.departures = Arrays.copyOf(this.departures, 2 * this.size);
+			}
+			this.sequences[this.size] = sequence;
+			this.stops[this.size] = stop;
+			this.arrivals[this.size] = arrival;
+			this.departures[this.size] = departure;
+			this.size++;
+		}
+
+		/**
+		 * stop_times.txt is usually sorted, but the GTFS reference does not require it.
+		 */
+		private void sortBySequence() {
+			Integer[] order = new Integer[this.size];
+			for (int i = 0; i < this.size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Integer.compare(this.sequences[a], this.sequences[b]));
+			int[] sortedSequences = new int[this.size];
+			int[] sortedStops = new int[this.size];
+			int[] sortedArrivals = new int[this.size];
+			int[] sortedDepartures = new int[this.size];
+			for (int i = 0; i < this.size; i++) {
+				sortedSequences[i] = this.sequences[order[i]];
+				sortedStops[i] = this.stops[order[i]];
+				sortedArrivals[i] = this.arrivals[order[i]];
+				sortedDepartures[i] = this.departures[order[i]];
+			}
+			this.sequences = sortedSequences;
+			this.stops = sortedStops;
+			this.arrivals = sortedArrivals;
+			this.departures = sortedDepartures;
+		}
+
+		/**
+		 * Interpolates the times of the stops without times, must be called after sorting.
+		 *
+		 * @return false if the first or the last stop has no time.
+		 */
+		private boolean interpolateTimes(TransitStopFacility[] stopFacilities) {
+			if (this.departures[0] == UNDEFINED_TIME || this.arrivals[this.size - 1] == UNDEFINED_TIME) {
+				return false;
+			}
+			int previous = 0;
+			for (int i = 1; i < this.size; i++) {
+				if (this.arrivals[i] != UNDEFINED_TIME) {
+					if (i - previous > 1) {
+						interpolateTimes(stopFacilities, previous, i);
+					}
+					previous = i;
+				}
+			}
+			return true;
+		}
+
+		private void interpolateTimes(TransitStopFacility[] stopFacilities, int from, int to) {
+			double[] distances = new double[to - from + 1];
+			for (int i = from + 1; i <= to; i++) {
+				distances[i - from] = distances[i - from - 1]
+						+ CoordUtils.calcEuclideanDistance(stopFacilities[this.stops[i - 1]].getCoord(), stopFacilities[this.stops[i]].getCoord());
+			}
+			double total = distances[to - from];
+			int startTime = this.departures[from];
+			int duration = this.arrivals[to] - startTime;
+			for (int i = from + 1; i < to; i++) {
+				// by the stop count if all stops have the same coordinates
+				double share = total > 0. ? distances[i - from] / total : (double) (i - from) / (to - from);
+				int time = startTime + (int) Math.round(share * duration);
+				this.arrivals[i] = time;
+				this.departures[i] = time;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,275 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.prepare;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
+import org.matsim.pt2matsim.tools.ScheduleTools;
+import org.matsim.pt2matsim.tools.debug.ScheduleCleaner;
+import org.matsim.utils.objectattributes.attributable.AttributesUtils;
+
+/**
+ * Maps a new release of a schedule by reusing the link sequences of a previously mapped schedule.
+ *
+ * A route of the new schedule is unchanged if a previously mapped route has the same mode and sequence of (parent)
+ * stop facilities. Unchanged routes get the network route and the child stop facilities of the previous route, the
+ * offsets and departures are taken from the new schedule. Only the new or changed routes are mapped, onto the base
+ * network the previous mapping started from, i.e. the unmapped osm network with its original freespeeds. The previously
+ * mapped network must therefore result from the same base network and mapping parameters.
+ *
+ * The links of the unchanged routes which are missing in the result, e.g. artificial links, are restored from the
+ * previously mapped network. If the new mapping created a different link or node with the same id (different end
+ * nodes or coordinates), the restored one is renamed with the suffix {@value #RESTORED_SUFFIX} and the unchanged routes
+ * and their stop facilities are rewritten.
+ */
+public final class IncrementalScheduleMapper {
+	private static final Logger log = LogManager.getLogger(IncrementalScheduleMapper.class);
+
+	// suffix of the child stop facilities created by pt2matsim, e.g. 8503000:0:3.link:1234
+	private static final String CHILD_STOP_FACILITY_SUFFIX = ".link:";
+
+	private static final String RESTORED_SUFFIX = "_r";
+
+	private final PublicTransitMappingConfigGroup config;
+	private final int partitions;
+
+	public IncrementalScheduleMapper(PublicTransitMappingConfigGroup config, int partitions) {
+		this.config = config;
+		this.partitions = partitions;
+	}
+
+	/**
+	 * Maps the schedule in place.
+	 *
+	 * @param baseNetwork the unmapped network of the previous mapping, modified in place.
+	 * @return the base network with the links of the new or changed and of the unchanged routes.
+	 */
+	public Network run(TransitSchedule schedule, TransitSchedule previousSchedule, Network previousNetwork, Network baseNetwork) {
+		Map<String, TransitRoute> previousRoutes = new HashMap<>();
+		for (TransitLine line : previousSchedule.getTransitLines().values()) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				if (route.getRoute() != null) {
+					previousRoutes.putIfAbsent(getSignature(route), route);
+				}
+			}
+		}
+
+		TransitScheduleFactory factory = schedule.getFactory();
+		TransitSchedule changedSchedule = ScheduleTools.createSchedule();
+		List<TransitRoute> reusedRoutes = new ArrayList<>();
+		int routeCount = 0;
+		for (TransitLine line : schedule.getTransitLines().values()) {
+			TransitLine changedLine = null;
+			for (TransitRoute route : new ArrayList<>(line.getRoutes().values())) {
+				routeCount++;
+				TransitRoute previousRoute = previousRoutes.get(getSignature(route));
+				if (previousRoute != null) {
+					TransitRoute reusedRoute = createReusedRoute(factory, route, previousRoute);
+					line.removeRoute(route);
+					line.addRoute(reusedRoute);
+					reusedRoutes.add(reusedRoute);
+				} else {
+					if (changedLine == null) {
+						changedLine = factory.createTransitLine(line.getId());
+						changedLine.setName(line.getName());
+						AttributesUtils.copyAttributesFromTo(line, changedLine);
+						changedSchedule.addTransitLine(changedLine);
+					}
+					line.removeRoute(route);
+					changedLine.addRoute(route);
+					for (TransitRouteStop stop : route.getStops()) {
+						if (!changedSchedule.getFacilities().containsKey(stop.getStopFacility().getId())) {
+							changedSchedule.addStopFacility(stop.getStopFacility());
+						}
+					}
+				}
+			}
+		}
+		log.info("Reusing the link sequences of " + reusedRoutes.size() + " of " + routeCount + " routes.");
+
+		Network network = baseNetwork;
+		if (!changedSchedule.getTransitLines().isEmpty()) {
+			new PartitionedScheduleMapper(this.config, this.partitions).run(changedSchedule, network);
+			for (TransitLine changedLine : changedSchedule.getTransitLines().values()) {
+				TransitLine line = schedule.getTransitLines().get(changedLine.getId());
+				for (TransitRoute route : changedLine.getRoutes().values()) {
+					line.addRoute(route);
+				}
+			}
+			for (TransitStopFacility stop : changedSchedule.getFacilities().values()) {
+				if (!schedule.getFacilities().containsKey(stop.getId())) {
+					schedule.addStopFacility(stop);
+				}
+			}
+		}
+
+		// the links of the unchanged routes are restored from the previously mapped network
+		Map<Id<Node>, Node> restoredNodes = new HashMap<>();
+		Map<Id<Link>, Id<Link>> renamedLinks = new HashMap<>();
+		for (TransitRoute route : reusedRoutes) {
+			restoreLinks(network, previousNetwork, route.getRoute(), restoredNodes, renamedLinks);
+		}
+		if (!renamedLinks.isEmpty()) {
+			log.warn("Renamed " + renamedLinks.size() + " restored links with ids which were taken by the new mapping.");
+		}
+		Map<TransitStopFacility, TransitStopFacility> restoredStops = new HashMap<>();
+		for (TransitRoute route : reusedRoutes) {
+			PartitionedScheduleMapper.renameRouteLinks(route, renamedLinks);
+			for (TransitRouteStop stop : route.getStops()) {
+				stop.setStopFacility(restoreStopFacility(schedule, stop.getStopFacility(), renamedLinks, restoredStops));
+			}
+		}
+
+		removeUnusedLinks(network, schedule);
+		ScheduleCleaner.removeNotUsedStopFacilities(schedule);
+		if (this.config.getScheduleFreespeedModes() != null && !this.config.getScheduleFreespeedModes().isEmpty()) {
+			ScheduleTools.setFreeSpeedBasedOnSchedule(network, schedule, this.config.getScheduleFreespeedModes());
+		}
+		return network;
+	}
+
+	private static TransitRoute createReusedRoute(TransitScheduleFactory factory, TransitRoute route, TransitRoute previousRoute) {
+		List<TransitRouteStop> stops = new ArrayList<>(route.getStops().size());
+		for (int i = 0; i < route.getStops().size(); i++) {
+			TransitRouteStop newStop = route.getStops().get(i);
+			TransitRouteStop previousStop = previousRoute.getStops().get(i);
+			TransitRouteStop stop = factory.createTransitRouteStop(previousStop.getStopFacility(),
+					newStop.getArrivalOffset().seconds(), newStop.getDepartureOffset().seconds());
+			stop.setAwaitDepartureTime(newStop.isAwaitDepartureTime());
+			stops.add(stop);
+		}
+		TransitRoute reusedRoute = factory.createTransitRoute(route.getId(), previousRoute.getRoute().clone(), stops, route.getTransportMode());
+		for (Departure departure : route.getDepartures().values()) {
+			reusedRoute.addDeparture(departure);
+		}
+		AttributesUtils.copyAttributesFromTo(route, reusedRoute);
+		return reusedRoute;
+	}
+
+	private static void restoreLinks(Network network, Network previousNetwork, NetworkRoute route, Map<Id<Node>, Node> restoredNodes,
+			Map<Id<Link>, Id<Link>> renamedLinks) {
+		List<Id<Link>> linkIds = new ArrayList<>(route.getLinkIds().size() + 2);
+		linkIds.add(route.getStartLinkId());
+		linkIds.addAll(route.getLinkIds());
+		linkIds.add(route.getEndLinkId());
+		for (Id<Link> linkId : linkIds) {
+			Link link = network.getLinks().get(linkId);
+			Link previousLink = previousNetwork.getLinks().get(linkId);
+			if (renamedLinks.containsKey(linkId) || (link != null && PartitionedScheduleMapper.hasSameNodes(link, previousLink))) {
+				continue;
+			}
+			Node fromNode = PartitionedScheduleMapper.getOrAddNode(network, previousLink.getFromNode(), restoredNodes, RESTORED_SUFFIX);
+			Node toNode = PartitionedScheduleMapper.getOrAddNode(network, previousLink.getToNode(), restoredNodes, RESTORED_SUFFIX);
+			Id<Link> restoredId = linkId;
+			if (link != null) {
+				restoredId = PartitionedScheduleMapper.getUnusedId(network.getLinks().keySet(), linkId, RESTORED_SUFFIX, Link.class);
+				renamedLinks.put(linkId, restoredId);
+			}
+			network.addLink(PartitionedScheduleMapper.copyLink(network, previousLink, restoredId, fromNode, toNode));
+		}
+	}
+
+	/**
+	 * @return the stop facility of the schedule to use instead of the previous stop facility.
+	 */
+	private static TransitStopFacility restoreStopFacility(TransitSchedule schedule, TransitStopFacility previousStop,
+			Map<Id<Link>, Id<Link>> renamedLinks, Map<TransitStopFacility, TransitStopFacility> restoredStops) {
+		TransitStopFacility restored = restoredStops.get(previousStop);
+		if (restored != null) {
+			return restored;
+		}
+		Id<Link> linkId = previousStop.getLinkId() == null ? null : renamedLinks.getOrDefault(previousStop.getLinkId(), previousStop.getLinkId());
+		TransitStopFacility existing = schedule.getFacilities().get(previousStop.getId());
+		if (existing != null && Objects.equals(existing.getLinkId(), linkId)) {
+			restored = existing;
+		} else if (existing == null && Objects.equals(previousStop.getLinkId(), linkId)) {
+			schedule.addStopFacility(previousStop);
+			restored = previousStop;
+		} else {
+			Id<TransitStopFacility> stopId = existing == null ? previousStop.getId()
+					: PartitionedScheduleMapper.getUnusedId(schedule.getFacilities().keySet(), previousStop.getId(), RESTORED_SUFFIX, TransitStopFacility.class);
+			restored = PartitionedScheduleMapper.addStopFacilityCopy(schedule, previousStop, stopId, linkId);
+		}
+		restoredStops.put(previousStop, restored);
+		return restored;
+	}
+
+	/**
+	 * Removes the links which are not used by any route and do not allow a mode to keep, as the mapper's clean up.
+	 */
+	private void removeUnusedLinks(Network network, TransitSchedule schedule) {
+		Set<String> modesToKeep = this.config.getModesToKeepOnCleanUp() == null ? Collections.emptySet() : this.config.getModesToKeepOnCleanUp();
+		Set<Id<Link>> usedLinks = new HashSet<>();
+		for (TransitLine line : schedule.getTransitLines().values()) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				if (route.getRoute() != null) {
+					usedLinks.add(route.getRoute().getStartLinkId());
+					usedLinks.addAll(route.getRoute().getLinkIds());
+					usedLinks.add(route.getRoute().getEndLinkId());
+				}
+			}
+		}
+		for (Link link : new ArrayList<>(network.getLinks().values())) {
+			if (!usedLinks.contains(link.getId()) && Collections.disjoint(link.getAllowedModes(), modesToKeep)) {
+				network.removeLink(link.getId());
+			}
+		}
+		for (Node node : new ArrayList<>(network.getNodes().values())) {
+			if (node.getInLinks().isEmpty() && node.getOutLinks().isEmpty()) {
+				network.removeNode(node.getId());
+			}
+		}
+	}
+
+	/**
+	 * @return the mode and the sequence of the parent stop facilities.
+	 */
+	static String getSignature(TransitRoute route) {
+		StringBuilder signature = new StringBuilder(route.getTransportMode());
+		for (TransitRouteStop stop : route.getStops()) {
+			String stopId = stop.getStopFacility().getId().toString();
+			int suffix = stopId.indexOf(CHILD_STOP_FACILITY_SUFFIX);
+			signature.append('|').append(suffix < 0 ? stopId : stopId.substring(0, suffix));
+		}
+		return signature.toString();
+	}
+
+}
@@ -0,0 +1,349 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.prepare;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.pt2matsim.osm.lib.Osm;
+import org.matsim.pt2matsim.osm.lib.OsmData;
+import org.matsim.pt2matsim.osm.lib.OsmFileReader;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
+import org.openstreetmap.osmosis.osmbinary.Osmformat;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Reads all ways with a <code>railway=*</code> tag and the nodes they use from an OSM PBF file, i.e. does the same as
+ * <code>osmosis --rb file=switzerland-latest.osm.pbf --tf accept-ways railway=* --used-node</code> without writing an
+ * uncompressed osm file.
+ *
+ * The file is read once. The data blocks are decompressed and parsed in parallel. Since the ways follow the nodes in a
+ * PBF file, the still compressed node blocks are kept in memory and only the used nodes are extracted from them once all
+ * railway ways are known. Of the node tags, only the <code>railway=*</code> tag is kept, e.g. for signals. Relations
+ * are not read, they are not needed for the network conversion. The nodes and ways are passed to pt2matsim's osm data
+ * container directly, without an osm xml file in between.
+ */
+public final class OsmPbfRailwayReader {
+	private static final Logger log = LogManager.getLogger(OsmPbfRailwayReader.class);
+
+	private static final String DATA_BLOCK = "OSMData";
+	private static final String RAILWAY_TAG = "railway";
+	private static final ByteString RAILWAY_KEY = ByteString.copyUtf8(RAILWAY_TAG);
+
+	private final int threads;
+	private final List<byte[]> nodeBlobs = new ArrayList<>();
+	private final List<RailwayWay> ways = new ArrayList<>();
+	private final List<NodeChunk> nodes = new ArrayList<>();
+
+	public OsmPbfRailwayReader(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Reads the railway ways and their nodes from the pbf file into pt2matsim's osm data container, with the same calls
+	 * as pt2matsim's xml reader: each node and way is handled and the map is built at the end.
+	 */
+	public static void readInto(String pbfFile, OsmData osmData) {
+		OsmPbfRailwayReader reader = new OsmPbfRailwayReader(Runtime.getRuntime().availableProcessors());
+		reader.read(pbfFile);
+		reader.handleAll(osmData);
+		osmData.buildMap();
+		if (osmData.getWays().isEmpty()) {
+			throw new IllegalStateException("No railway ways in " + pbfFile);
+		}
+		log.info("Built the osm map with " + osmData.getNodes().size() + " nodes and " + osmData.getWays().size() + " ways.");
+	}
+
+	public void read(String pbfFile) {
+		ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(pbfFile), 1 << 20))) {
+			Deque<Future<BlockContent>> pending = new ArrayDeque<>();
+			while (true) {
+				int headerSize;
+				try {
+					headerSize = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				byte[] headerBytes = new byte[headerSize];
+				in.readFully(headerBytes);
+				Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBytes);
+				byte[] blobBytes = new byte[header.getDatasize()];
+				in.readFully(blobBytes);
+
+				// the header block only contains meta data and required features
+				if (DATA_BLOCK.equals(header.getType())) {
+					pending.add(executor.submit(() -> parseBlock(blobBytes)));
+					// keep the order of the blocks and limit the number of decompressed blocks in memory
+					while (pending.size() > 4 * this.threads) {
+						collect(pending.poll().get());
+					}
+				}
+			}
+			while (!pending.isEmpty()) {
+				collect(pending.poll().get());
+			}
+			log.info("Read " + this.ways.size() + " railway ways.");
+
+			long[] usedNodeIds = getUsedNodeIds();
+			List<Future<NodeChunk>> nodeChunks = new ArrayList<>();
+			for (byte[] nodeBlob : this.nodeBlobs) {
+				nodeChunks.add(executor.submit(() -> parseUsedNodes(nodeBlob, usedNodeIds)));
+			}
+			this.nodeBlobs.clear();
+			int nodeCount = 0;
+			for (Future<NodeChunk> nodeChunk : nodeChunks) {
+				NodeChunk chunk = nodeChunk.get();
+				this.nodes.add(chunk);
+				nodeCount += chunk.size;
+			}
+			log.info("Read " + nodeCount + " of " + usedNodeIds.length + " nodes used by railway ways.");
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not parse " + pbfFile, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Passes the nodes and ways to the osm data container, the compact chunks and ways are released on the way.
+	 */
+	public void handleAll(OsmData osmData) {
+		for (NodeChunk chunk : this.nodes) {
+			for (int i = 0; i < chunk.size; i++) {
+				OsmFileReader.ParsedNode node = new OsmFileReader.ParsedNode(Id.create(chunk.ids[i], Osm.Node.class), new Coord(chunk.lons[i], chunk.lats[i]));
+				if (chunk.railwayValues[i] != null) {
+					node.tags.put(RAILWAY_TAG, chunk.railwayValues[i]);
+				}
+				osmData.handleNode(node);
+			}
+		}
+		this.nodes.clear();
+		for (RailwayWay way : this.ways) {
+			OsmFileReader.ParsedWay parsedWay = new OsmFileReader.ParsedWay(Id.create(way.id, Osm.Way.class));
+			for (long ref : way.refs) {
+				parsedWay.nodes.add(Id.create(ref, Osm.Node.class));
+			}
+			for (int i = 0; i < way.keys.length; i++) {
+				parsedWay.tags.put(way.keys[i], way.values[i]);
+			}
+			osmData.handleWay(parsedWay);
+		}
+		this.ways.clear();
+	}
+
+	private void collect(BlockContent content) {
+		if (content.nodeBlob != null) {
+			this.nodeBlobs.add(content.nodeBlob);
+		}
+		this.ways.addAll(content.ways);
+	}
+
+	private long[] getUsedNodeIds() {
+		int size = 0;
+		for (RailwayWay way : this.ways) {
+			size += way.refs.length;
+		}
+		long[] ids = new long[size];
+		int i = 0;
+		for (RailwayWay way : this.ways) {
+			System.arraycopy(way.refs, 0, ids, i, way.refs.length);
+			i += way.refs.length;
+		}
+		Arrays.parallelSort(ids);
+		return Arrays.stream(ids).distinct().toArray();
+	}
+
+	private static int getRailwayKey(Osmformat.StringTable strings) {
+		for (int i = 0; i < strings.getSCount(); i++) {
+			if (RAILWAY_KEY.equals(strings.getS(i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static BlockContent parseBlock(byte[] blobBytes) throws IOException {
+		Osmformat.PrimitiveBlock block = decode(blobBytes);
+		Osmformat.StringTable strings = block.getStringtable();
+		int railwayKey = getRailwayKey(strings);
+
+		boolean hasNodes = false;
+		List<RailwayWay> ways = new ArrayList<>();
+		for (Osmformat.PrimitiveGroup group : block.getPrimitivegroupList()) {
+			hasNodes |= group.hasDense() || group.getNodesCount() > 0;
+			if (railwayKey < 0) {
+				continue;
+			}
+			for (Osmformat.Way way : group.getWaysList()) {
+				if (way.getKeysList().contains(railwayKey)) {
+					ways.add(new RailwayWay(way, strings));
+				}
+			}
+		}
+		return new BlockContent(hasNodes ? blobBytes : null, ways);
+	}
+
+	private static NodeChunk parseUsedNodes(byte[] blobBytes, long[] usedNodeIds) throws IOException {
+		Osmformat.PrimitiveBlock block = decode(blobBytes);
+		long granularity = block.getGranularity();
+		long latOffset = block.getLatOffset();
+		long lonOffset = block.getLonOffset();
+		Osmformat.StringTable strings = block.getStringtable();
+		int railwayKey = getRailwayKey(strings);
+
+		NodeChunk chunk = new NodeChunk();
+		for (Osmformat.PrimitiveGroup group : block.getPrimitivegroupList()) {
+			if (group.hasDense()) {
+				// ids and coordinates of dense nodes are delta coded, the tags of all nodes are key value pairs, each
+				// node's pairs end with 0
+				Osmformat.DenseNodes dense = group.getDense();
+				boolean hasTags = dense.getKeysValsCount() > 0;
+				int keyVal = 0;
+				long id = 0;
+				long lat = 0;
+				long lon = 0;
+				for (int i = 0; i < dense.getIdCount(); i++) {
+					id += dense.getId(i);
+					lat += dense.getLat(i);
+					lon += dense.getLon(i);
+					String railwayValue = null;
+					if (hasTags) {
+						while (dense.getKeysVals(keyVal) != 0) {
+							if (dense.getKeysVals(keyVal) == railwayKey) {
+								railwayValue = strings.getS(dense.getKeysVals(keyVal + 1)).toStringUtf8();
+							}
+							keyVal += 2;
+						}
+						keyVal++;
+					}
+					if (Arrays.binarySearch(usedNodeIds, id) >= 0) {
+						chunk.add(id, 1e-9 * (latOffset + granularity * lat), 1e-9 * (lonOffset + granularity * lon), railwayValue);
+					}
+				}
+			}
+			for (Osmformat.Node node : group.getNodesList()) {
+				if (Arrays.binarySearch(usedNodeIds, node.getId()) >= 0) {
+					int railwayTag = railwayKey < 0 ? -1 : node.getKeysList().indexOf(railwayKey);
+					String railwayValue = railwayTag < 0 ? null : strings.getS(node.getVals(railwayTag)).toStringUtf8();
+					chunk.add(node.getId(), 1e-9 * (latOffset + granularity * node.getLat()), 1e-9 * (lonOffset + granularity * node.getLon()),
+							railwayValue);
+				}
+			}
+		}
+		return chunk;
+	}
+
+	private static Osmformat.PrimitiveBlock decode(byte[] blobBytes) throws IOException {
+		Fileformat.Blob blob = Fileformat.Blob.parseFrom(blobBytes);
+		if (blob.hasRaw()) {
+			return Osmformat.PrimitiveBlock.parseFrom(blob.getRaw());
+		}
+		if (!blob.hasZlibData()) {
+			throw new IOException("Unsupported blob compression, only raw and zlib blobs are supported.");
+		}
+		byte[] raw = new byte[blob.getRawSize()];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(blob.getZlibData().toByteArray());
+			inflater.inflate(raw);
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+		return Osmformat.PrimitiveBlock.parseFrom(raw);
+	}
+
+	private record BlockContent(byte[] nodeBlob, List<RailwayWay> ways) {
+	}
+
+	private static final class RailwayWay {
+		private final long id;
+		private final long[] refs;
+		private final String[] keys;
+		private final String[] values;
+
+		private RailwayWay(Osmformat.Way way, Osmformat.StringTable strings) {
+			this.id = way.getId();
+			// node references are delta coded
+			this.refs = new long[way.getRefsCount()];
+			long ref = 0;
+			for (int i = 0; i < this.refs.length; i++) {
+				ref += way.getRefs(i);
+				this.refs[i] = ref;
+			}
+			this.keys = new String[way.getKeysCount()];
+			this.values = new String[way.getKeysCount()];
+			for (int i = 0; i < this.keys.length; i++) {
+				this.keys[i] = strings.getS(way.getKeys(i)).toStringUtf8();
+				this.values[i] = strings.getS(way.getVals(i)).toStringUtf8();
+			}
+		}
+	}
+
+	private static final class NodeChunk {
+		private long[] ids = new long[16];
+		private double[] lats = new double[16];
+		private double[] lons = new double[16];
+		private String[] railwayValues = new String[16];
+		private int size = 0;
+
+		private void add(long id, double lat, double lon, String railwayValue) {
+			if (this.size == this.ids.length) {
+				this.ids = Arrays.copyOf(this.ids, 2 * this.size);
+				this.lats = Arrays.copyOf(this.lats, 2 * this.size);
+				this.lons = Arrays.copyOf(this.lons, 2 * this.size);
+				this.railwayValues = Arrays.copyOf(this.railwayValues, 2 * this.size);
+			}
+			this.ids[this.size] = id;
+			this.lats[this.size] = lat;
+			this.lons[this.size] = lon;
+			this.railwayValues[this.size] = railwayValue;
+			this.size++;
+		}
+	}
+
+}
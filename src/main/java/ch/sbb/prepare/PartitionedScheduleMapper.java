@@ -0,0 +1,364 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.prepare;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
+import org.matsim.pt2matsim.mapping.PTMapper;
+import org.matsim.pt2matsim.tools.ScheduleTools;
+import org.matsim.pt2matsim.tools.debug.ScheduleCleaner;
+import org.matsim.utils.objectattributes.attributable.AttributesUtils;
+
+/**
+ * Maps the schedule onto the network in independent partitions of transit lines. Each partition is mapped by its own
+ * PTMapper run on a copy of the network, the copies are never modified by other partitions.
+ *
+ * The number of partitions is a fixed parameter, so the partitions and the ids of the artificial links and child stop
+ * facilities they create do not depend on the machine. Since every partition holds a copy of the network, it should
+ * be small, the threads of the mapper config are divided between the partitions which are mapped at the same time.
+ *
+ * The mapped lines, the child stop facilities and the artificial links of the partitions are merged back into the
+ * original schedule and network in the order of the partitions, which only depends on the line ids. The partitions
+ * create the ids of their artificial links, nodes and child stop facilities independently. If an id was already
+ * merged for another link, node or stop facility (different end nodes, coordinates or link), the object of the later
+ * partition is renamed with the suffix "_p" and the partition index, and the routes of the partition are rewritten.
+ * The freespeeds are set based on the complete schedule after the merge.
+ */
+public final class PartitionedScheduleMapper {
+	private static final Logger log = LogManager.getLogger(PartitionedScheduleMapper.class);
+
+	private final PublicTransitMappingConfigGroup config;
+	private final int partitions;
+
+	public PartitionedScheduleMapper(PublicTransitMappingConfigGroup config, int partitions) {
+		this.config = config;
+		this.partitions = partitions;
+	}
+
+	/**
+	 * Maps the schedule onto the network. Both are modified, as with {@link PTMapper#mapScheduleToNetwork}.
+	 */
+	public void run(TransitSchedule schedule, Network network) {
+		List<List<TransitLine>> lineGroups = createLineGroups(schedule);
+		if (lineGroups.size() <= 1) {
+			PTMapper.mapScheduleToNetwork(schedule, network, this.config);
+			return;
+		}
+
+		// the threads of the mapper are divided between the partitions which run at the same time, the freespeeds
+		// depend on all routes of a link and are set after the merge
+		Set<String> freespeedModes = this.config.getScheduleFreespeedModes();
+		int threads = Math.max(1, this.config.getNumOfThreads());
+		int parallelPartitions = Math.min(lineGroups.size(), threads);
+		this.config.setScheduleFreespeedModes(Collections.emptySet());
+		this.config.setNumOfThreads(Math.max(1, threads / parallelPartitions));
+		log.info("Mapping " + parallelPartitions + " partitions at a time with " + this.config.getNumOfThreads() + " threads each.");
+
+		List<TransitSchedule> mappedSchedules = new ArrayList<>();
+		List<Network> mappedNetworks = new ArrayList<>();
+		for (List<TransitLine> lineGroup : lineGroups) {
+			mappedSchedules.add(createPartitionSchedule(lineGroup));
+			mappedNetworks.add(copyNetwork(network));
+		}
+		List<Future<?>> futures = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelPartitions);
+		try {
+			for (int i = 0; i < lineGroups.size(); i++) {
+				TransitSchedule partitionSchedule = mappedSchedules.get(i);
+				Network partitionNetwork = mappedNetworks.get(i);
+				futures.add(executor.submit(() -> PTMapper.mapScheduleToNetwork(partitionSchedule, partitionNetwork, this.config)));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Mapping of a partition failed.", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+			this.config.setScheduleFreespeedModes(freespeedModes);
+			this.config.setNumOfThreads(threads);
+		}
+
+		for (TransitLine line : new ArrayList<>(schedule.getTransitLines().values())) {
+			schedule.removeTransitLine(line);
+		}
+		Set<Id<Link>> keptLinks = new HashSet<>();
+		for (int i = 0; i < lineGroups.size(); i++) {
+			mergePartition(network, schedule, mappedNetworks.get(i), mappedSchedules.get(i), "_p" + i, keptLinks);
+			// the merged copy is not needed anymore
+			mappedNetworks.set(i, null);
+		}
+		removeUnusedLinks(network, keptLinks);
+		ScheduleCleaner.removeNotUsedStopFacilities(schedule);
+		if (freespeedModes != null && !freespeedModes.isEmpty()) {
+			ScheduleTools.setFreeSpeedBasedOnSchedule(network, schedule, freespeedModes);
+		}
+	}
+
+	/**
+	 * Assigns the lines to the partitions, starting with the largest lines and always using the partition with the
+	 * fewest route stops so far.
+	 */
+	private List<List<TransitLine>> createLineGroups(TransitSchedule schedule) {
+		List<TransitLine> lines = new ArrayList<>(schedule.getTransitLines().values());
+		lines.sort(Comparator.comparingInt(PartitionedScheduleMapper::getRouteStops).reversed()
+				.thenComparing(line -> line.getId().toString()));
+
+		int groupCount = Math.max(1, Math.min(this.partitions, lines.size()));
+		List<List<TransitLine>> groups = new ArrayList<>();
+		long[] groupSizes = new long[groupCount];
+		for (int i = 0; i < groupCount; i++) {
+			groups.add(new ArrayList<>());
+		}
+		for (TransitLine line : lines) {
+			int smallest = 0;
+			for (int i = 1; i < groupCount; i++) {
+				if (groupSizes[i] < groupSizes[smallest]) {
+					smallest = i;
+				}
+			}
+			groups.get(smallest).add(line);
+			groupSizes[smallest] += getRouteStops(line);
+		}
+		log.info("Mapping " + lines.size() + " transit lines in " + groupCount + " partitions.");
+		return groups;
+	}
+
+	private static int getRouteStops(TransitLine line) {
+		int stops = 0;
+		for (TransitRoute route : line.getRoutes().values()) {
+			stops += route.getStops().size();
+		}
+		return stops;
+	}
+
+	private static TransitSchedule createPartitionSchedule(List<TransitLine> lines) {
+		TransitSchedule partitionSchedule = ScheduleTools.createSchedule();
+		for (TransitLine line : lines) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				for (TransitRouteStop stop : route.getStops()) {
+					if (!partitionSchedule.getFacilities().containsKey(stop.getStopFacility().getId())) {
+						partitionSchedule.addStopFacility(stop.getStopFacility());
+					}
+				}
+			}
+			partitionSchedule.addTransitLine(line);
+		}
+		return partitionSchedule;
+	}
+
+	/**
+	 * Adds the links, nodes, child stop facilities and lines of the partition. Links and nodes of the partition with the
+	 * same id and the same end node coordinates or coordinate as an existing one are the same object, links and nodes
+	 * with a colliding id are renamed with the suffix.
+	 */
+	private static void mergePartition(Network network, TransitSchedule schedule, Network mappedNetwork, TransitSchedule mappedSchedule,
+			String suffix, Set<Id<Link>> keptLinks) {
+		Map<Id<Node>, Node> nodes = new HashMap<>();
+		Map<Id<Link>, Id<Link>> renamedLinks = new HashMap<>();
+		for (Link mappedLink : mappedNetwork.getLinks().values()) {
+			Link link = network.getLinks().get(mappedLink.getId());
+			if (link != null && hasSameNodes(link, mappedLink)) {
+				if (!link.getAllowedModes().containsAll(mappedLink.getAllowedModes())) {
+					Set<String> modes = new HashSet<>(link.getAllowedModes());
+					modes.addAll(mappedLink.getAllowedModes());
+					link.setAllowedModes(modes);
+				}
+				keptLinks.add(link.getId());
+				continue;
+			}
+			Node fromNode = getOrAddNode(network, mappedLink.getFromNode(), nodes, suffix);
+			Node toNode = getOrAddNode(network, mappedLink.getToNode(), nodes, suffix);
+			Id<Link> linkId = mappedLink.getId();
+			if (link != null) {
+				linkId = getUnusedId(network.getLinks().keySet(), linkId, suffix, Link.class);
+				renamedLinks.put(mappedLink.getId(), linkId);
+			}
+			network.addLink(copyLink(network, mappedLink, linkId, fromNode, toNode));
+			keptLinks.add(linkId);
+		}
+		if (!renamedLinks.isEmpty()) {
+			log.warn("Renamed " + renamedLinks.size() + " artificial links of partition " + suffix + " with colliding ids.");
+		}
+
+		// stop facilities of the partition which are replaced by an existing or a renamed one
+		Map<TransitStopFacility, TransitStopFacility> renamedStops = new HashMap<>();
+		for (TransitStopFacility stop : mappedSchedule.getFacilities().values()) {
+			if (stop.getLinkId() != null && renamedLinks.containsKey(stop.getLinkId())) {
+				stop.setLinkId(renamedLinks.get(stop.getLinkId()));
+			}
+			TransitStopFacility existing = schedule.getFacilities().get(stop.getId());
+			if (existing == null) {
+				schedule.addStopFacility(stop);
+			} else if (existing != stop && Objects.equals(existing.getLinkId(), stop.getLinkId())) {
+				// the same child stop facility was created by an earlier partition
+				renamedStops.put(stop, existing);
+			} else if (existing != stop) {
+				Id<TransitStopFacility> stopId = getUnusedId(schedule.getFacilities().keySet(), stop.getId(), suffix, TransitStopFacility.class);
+				renamedStops.put(stop, addStopFacilityCopy(schedule, stop, stopId, stop.getLinkId()));
+			}
+		}
+
+		List<TransitLine> lines = new ArrayList<>(mappedSchedule.getTransitLines().values());
+		lines.sort(Comparator.comparing(line -> line.getId().toString()));
+		for (TransitLine line : lines) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				renameRouteLinks(route, renamedLinks);
+				for (TransitRouteStop routeStop : route.getStops()) {
+					TransitStopFacility renamed = renamedStops.get(routeStop.getStopFacility());
+					if (renamed != null) {
+						routeStop.setStopFacility(renamed);
+					}
+				}
+			}
+			schedule.addTransitLine(line);
+		}
+	}
+
+	/**
+	 * Adds a copy of the stop facility with another id or link to the schedule.
+	 */
+	static TransitStopFacility addStopFacilityCopy(TransitSchedule schedule, TransitStopFacility stop, Id<TransitStopFacility> stopId, Id<Link> linkId) {
+		TransitStopFacility copy = schedule.getFactory().createTransitStopFacility(stopId, stop.getCoord(), stop.getIsBlockingLane());
+		copy.setLinkId(linkId);
+		copy.setName(stop.getName());
+		copy.setStopAreaId(stop.getStopAreaId());
+		AttributesUtils.copyAttributesFromTo(stop, copy);
+		schedule.addStopFacility(copy);
+		return copy;
+	}
+
+	static boolean hasSameNodes(Link link, Link mappedLink) {
+		return link.getFromNode().getId().equals(mappedLink.getFromNode().getId())
+				&& link.getToNode().getId().equals(mappedLink.getToNode().getId())
+				&& link.getFromNode().getCoord().equals(mappedLink.getFromNode().getCoord())
+				&& link.getToNode().getCoord().equals(mappedLink.getToNode().getCoord());
+	}
+
+	static Node getOrAddNode(Network network, Node mappedNode, Map<Id<Node>, Node> nodes, String suffix) {
+		Node node = nodes.get(mappedNode.getId());
+		if (node != null) {
+			return node;
+		}
+		node = network.getNodes().get(mappedNode.getId());
+		if (node == null || !node.getCoord().equals(mappedNode.getCoord())) {
+			Id<Node> nodeId = node == null ? mappedNode.getId() : getUnusedId(network.getNodes().keySet(), mappedNode.getId(), suffix, Node.class);
+			node = network.getFactory().createNode(nodeId, mappedNode.getCoord());
+			AttributesUtils.copyAttributesFromTo(mappedNode, node);
+			network.addNode(node);
+		}
+		nodes.put(mappedNode.getId(), node);
+		return node;
+	}
+
+	static <T> Id<T> getUnusedId(Set<Id<T>> usedIds, Id<T> id, String suffix, Class<T> type) {
+		Id<T> unused = Id.create(id + suffix, type);
+		for (int i = 1; usedIds.contains(unused); i++) {
+			unused = Id.create(id + suffix + "_" + i, type);
+		}
+		return unused;
+	}
+
+	static void renameRouteLinks(TransitRoute route, Map<Id<Link>, Id<Link>> renamedLinks) {
+		NetworkRoute networkRoute = route.getRoute();
+		if (renamedLinks.isEmpty() || networkRoute == null) {
+			return;
+		}
+		List<Id<Link>> linkIds = new ArrayList<>(networkRoute.getLinkIds().size());
+		for (Id<Link> linkId : networkRoute.getLinkIds()) {
+			linkIds.add(renamedLinks.getOrDefault(linkId, linkId));
+		}
+		route.setRoute(RouteUtils.createLinkNetworkRouteImpl(renamedLinks.getOrDefault(networkRoute.getStartLinkId(), networkRoute.getStartLinkId()),
+				linkIds, renamedLinks.getOrDefault(networkRoute.getEndLinkId(), networkRoute.getEndLinkId())));
+	}
+
+	/**
+	 * Links which are kept by at least one partition are kept.
+	 */
+	private static void removeUnusedLinks(Network network, Set<Id<Link>> keptLinks) {
+		for (Id<Link> linkId : new ArrayList<>(network.getLinks().keySet())) {
+			if (!keptLinks.contains(linkId)) {
+				network.removeLink(linkId);
+			}
+		}
+		for (Node node : new ArrayList<>(network.getNodes().values())) {
+			if (node.getInLinks().isEmpty() && node.getOutLinks().isEmpty()) {
+				network.removeNode(node.getId());
+			}
+		}
+	}
+
+	/**
+	 * Copies the nodes and links including their attributes.
+	 */
+	public static Network copyNetwork(Network network) {
+		Network copy = NetworkUtils.createNetwork();
+		for (Node node : network.getNodes().values()) {
+			Node nodeCopy = copy.getFactory().createNode(node.getId(), node.getCoord());
+			AttributesUtils.copyAttributesFromTo(node, nodeCopy);
+			copy.addNode(nodeCopy);
+		}
+		for (Link link : network.getLinks().values()) {
+			copy.addLink(copyLink(copy, link, link.getId(), copy.getNodes().get(link.getFromNode().getId()), copy.getNodes().get(link.getToNode().getId())));
+		}
+		return copy;
+	}
+
+	static Link copyLink(Network network, Link link, Id<Link> linkId, Node fromNode, Node toNode) {
+		Link copy = network.getFactory().createLink(linkId, fromNode, toNode);
+		copy.setLength(link.getLength());
+		copy.setFreespeed(link.getFreespeed());
+		copy.setCapacity(link.getCapacity());
+		copy.setNumberOfLanes(link.getNumberOfLanes());
+		copy.setAllowedModes(link.getAllowedModes());
+		AttributesUtils.copyAttributesFromTo(link, copy);
+		return copy;
+	}
+
+}
@@ -0,0 +1,238 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.prepare;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.collections.QuadTree;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.utils.objectattributes.attributable.AttributesUtils;
+
+import ch.sbb.run.RunSwitzerlandRailway;
+
+/**
+ * Merges linear chains of rail links into single links, e.g. the many short links between degree-2 nodes which are
+ * created by the osm converter if the paths are kept.
+ *
+ * A node is only merged if it connects exactly two neighbour nodes, either in one direction or in both directions,
+ * and if the links on both sides have the same modes, freespeed, capacity, number of lanes and attributes, except the
+ * osm way id. Switches, i.e. nodes
+ * with more than two neighbours, and signals are always kept. Nodes close to a stop facility are kept as well, so the schedule
+ * mapping still finds short link candidates at each stop.
+ *
+ * The merged link keeps the id and attributes of the first link of the chain, which are the same along the chain. Its
+ * length is the sum of the chain, the osm way ids of the chain are listed comma separated in
+ * {@value #LINK_ATTRIBUTE_OSM_WAY_ID} and the path of the removed nodes is stored as link attribute
+ * {@value #LINK_ATTRIBUTE_GEOMETRY}.
+ */
+public final class RailNetworkSimplifier {
+	private static final Logger log = LogManager.getLogger(RailNetworkSimplifier.class);
+
+	public static final String LINK_ATTRIBUTE_GEOMETRY = "geometry";
+
+	// set by the osm converter, one chain may consist of several ways
+	public static final String LINK_ATTRIBUTE_OSM_WAY_ID = "osm:way:id";
+
+	private final Set<Id<Node>> nodesToKeep = new HashSet<>();
+
+	/**
+	 * Keeps all nodes within the radius around the stop facilities of the schedule.
+	 */
+	public void keepNodesAroundStops(Network network, TransitSchedule schedule, double radius) {
+		if (network.getNodes().isEmpty()) {
+			return;
+		}
+		double[] bbox = NetworkUtils.getBoundingBox(network.getNodes().values());
+		QuadTree<Node> nodes = new QuadTree<>(bbox[0], bbox[1], bbox[2], bbox[3]);
+		for (Node node : network.getNodes().values()) {
+			nodes.put(node.getCoord().getX(), node.getCoord().getY(), node);
+		}
+		for (TransitStopFacility stop : schedule.getFacilities().values()) {
+			for (Node node : nodes.getDisk(stop.getCoord().getX(), stop.getCoord().getY(), radius)) {
+				this.nodesToKeep.add(node.getId());
+			}
+		}
+	}
+
+	public void run(Network network) {
+		int linksBefore = network.getLinks().size();
+		int nodesBefore = network.getNodes().size();
+
+		List<List<Link>> chains = new ArrayList<>();
+		for (Node start : network.getNodes().values()) {
+			if (isPassThrough(start)) {
+				continue;
+			}
+			for (Link link : start.getOutLinks().values()) {
+				List<Link> chain = new ArrayList<>();
+				chain.add(link);
+				Link current = link;
+				while (isPassThrough(current.getToNode()) && current.getToNode() != start) {
+					current = getNextLink(current);
+					chain.add(current);
+				}
+				if (chain.size() > 1 && current.getToNode() != start) {
+					chains.add(chain);
+				}
+			}
+		}
+
+		for (List<Link> chain : chains) {
+			merge(network, chain);
+		}
+
+		log.info("Network simplified: removed " + (linksBefore - network.getLinks().size()) + " of " + linksBefore + " links and "
+				+ (nodesBefore - network.getNodes().size()) + " of " + nodesBefore + " nodes.");
+	}
+
+	private void merge(Network network, List<Link> chain) {
+		Link first = chain.get(0);
+		Link last = chain.get(chain.size() - 1);
+
+		double length = 0.;
+		Set<String> wayIds = new LinkedHashSet<>();
+		StringBuilder geometry = new StringBuilder("LINESTRING(");
+		appendCoord(geometry, first.getFromNode().getCoord());
+		for (Link link : chain) {
+			length += link.getLength();
+			Object wayId = link.getAttributes().getAttribute(LINK_ATTRIBUTE_OSM_WAY_ID);
+			if (wayId != null) {
+				wayIds.add(wayId.toString());
+			}
+			geometry.append(", ");
+			appendCoord(geometry, link.getToNode().getCoord());
+		}
+		geometry.append(')');
+
+		for (Link link : chain) {
+			network.removeLink(link.getId());
+		}
+		Link merged = network.getFactory().createLink(first.getId(), first.getFromNode(), last.getToNode());
+		merged.setLength(length);
+		merged.setFreespeed(first.getFreespeed());
+		merged.setCapacity(first.getCapacity());
+		merged.setNumberOfLanes(first.getNumberOfLanes());
+		merged.setAllowedModes(first.getAllowedModes());
+		AttributesUtils.copyAttributesFromTo(first, merged);
+		if (wayIds.size() > 1) {
+			merged.getAttributes().putAttribute(LINK_ATTRIBUTE_OSM_WAY_ID, String.join(",", wayIds));
+		}
+		merged.getAttributes().putAttribute(LINK_ATTRIBUTE_GEOMETRY, geometry.toString());
+		network.addLink(merged);
+
+		// the interior nodes are only removed once the links of both directions are merged
+		for (int i = 1; i < chain.size(); i++) {
+			Node node = chain.get(i).getFromNode();
+			if (node.getInLinks().isEmpty() && node.getOutLinks().isEmpty()) {
+				network.removeNode(node.getId());
+			}
+		}
+	}
+
+	private static void appendCoord(StringBuilder geometry, Coord coord) {
+		geometry.append(coord.getX()).append(' ').append(coord.getY());
+	}
+
+	/**
+	 * @return the out link of the link's to node which does not lead back to the link's from node.
+	 */
+	private static Link getNextLink(Link link) {
+		for (Link outLink : link.getToNode().getOutLinks().values()) {
+			if (outLink.getToNode() != link.getFromNode()) {
+				return outLink;
+			}
+		}
+		throw new IllegalStateException("No next link found after link " + link.getId());
+	}
+
+	private boolean isPassThrough(Node node) {
+		if (this.nodesToKeep.contains(node.getId()) || Boolean.TRUE.equals(node.getAttributes().getAttribute(RunSwitzerlandRailway.NODE_ATTRIBUTE_SIGNAL))) {
+			return false;
+		}
+		int inLinks = node.getInLinks().size();
+		int outLinks = node.getOutLinks().size();
+		if (inLinks == 1 && outLinks == 1) {
+			// one-way
+			Link inLink = node.getInLinks().values().iterator().next();
+			Link outLink = node.getOutLinks().values().iterator().next();
+			return inLink.getFromNode() != outLink.getToNode() && inLink.getFromNode() != node && isCompatible(inLink, outLink);
+		}
+		if (inLinks == 2 && outLinks == 2) {
+			// both directions: each in link must continue to the other neighbour
+			Set<Node> neighbours = new HashSet<>();
+			for (Link inLink : node.getInLinks().values()) {
+				neighbours.add(inLink.getFromNode());
+			}
+			for (Link outLink : node.getOutLinks().values()) {
+				neighbours.add(outLink.getToNode());
+			}
+			if (neighbours.size() != 2 || neighbours.contains(node)) {
+				return false;
+			}
+			for (Link inLink : node.getInLinks().values()) {
+				Link outLink = null;
+				for (Link candidate : node.getOutLinks().values()) {
+					if (candidate.getToNode() != inLink.getFromNode()) {
+						outLink = candidate;
+					}
+				}
+				if (outLink == null || !isCompatible(inLink, outLink)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean isCompatible(Link link, Link other) {
+		return link.getAllowedModes().equals(other.getAllowedModes())
+				&& link.getFreespeed() == other.getFreespeed()
+				&& link.getCapacity() == other.getCapacity()
+				&& link.getNumberOfLanes() == other.getNumberOfLanes()
+				&& hasSameAttributes(link, other);
+	}
+
+	/**
+	 * Compares all attributes except the osm way id, e.g. the osm maxspeed, gauge or electrification of the ways.
+	 */
+	private static boolean hasSameAttributes(Link link, Link other) {
+		Map<String, Object> attributes = new HashMap<>(link.getAttributes().getAsMap());
+		Map<String, Object> otherAttributes = new HashMap<>(other.getAttributes().getAsMap());
+		attributes.remove(LINK_ATTRIBUTE_OSM_WAY_ID);
+		otherAttributes.remove(LINK_ATTRIBUTE_OSM_WAY_ID);
+		return attributes.equals(otherAttributes);
+	}
+
+}
@@ -0,0 +1,126 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.prepare;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.ConfigWriter;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt2matsim.tools.NetworkTools;
+import org.matsim.pt2matsim.tools.ScheduleTools;
+import org.matsim.vehicles.Vehicles;
+
+import ch.sbb.run.SwitzerlandRailwayConfigGroup;
+
+/**
+ * Writes a scaled-up copy of the railsim input for load tests of the QSim.
+ *
+ * The scenario is either the output of GenerateRailsimInput or, with a grid size above zero, a synthetic grid (see
+ * SyntheticRailScenario). The departures are multiplied and the lines cloned onto parallel tracks (see ScheduleScaler).
+ * The scaled scenario is written together with a run config into its own directory.
+ *
+ * Optional arguments: departure factor, headway compression, parallel tracks, grid size.
+ */
+public final class ScaleUpRailsimInput {
+	private static final Logger log = LogManager.getLogger(ScaleUpRailsimInput.class);
+
+	private static final String MATSIM_INPUT = "matsim_input/";
+	private static final String RUN_CONFIG = MATSIM_INPUT + "config.xml";
+	private static final String VEHICLE_TYPES = MATSIM_INPUT + "vehicleTypes.xml";
+	private static final String NETWORK = "transitNetwork.xml.gz";
+	private static final String SCHEDULE = "transitSchedule.xml.gz";
+	private static final String VEHICLES = "transitVehicles.xml.gz";
+
+	private static final String OUTPUT = MATSIM_INPUT + "scaled/";
+	private static final String OUTPUT_RUN_DIRECTORY = "output_scaled";
+
+	// departures per original departure, the added ones are spread over the headway times the compression
+	private static final int departureFactor = 2;
+	private static final double headwayCompression = 1.;
+
+	// number of parallel copies of the network and the lines, 50 m to the north of each other
+	private static final int parallelTracks = 0;
+	private static final double parallelTrackDistance = 50.;
+
+	// grid size of the synthetic scenario, 0 to scale the output of GenerateRailsimInput
+	private static final int syntheticGridSize = 0;
+	private static final double syntheticLinkLength = 2000.;
+	private static final int syntheticDepartures = 32;
+	private static final double syntheticHeadway = 1800.;
+
+	private ScaleUpRailsimInput() {
+	}
+
+	public static void main(String[] args) {
+		int factor = args.length > 0 ? Integer.parseInt(args[0]) : departureFactor;
+		double compression = args.length > 1 ? Double.parseDouble(args[1]) : headwayCompression;
+		int tracks = args.length > 2 ? Integer.parseInt(args[2]) : parallelTracks;
+		int gridSize = args.length > 3 ? Integer.parseInt(args[3]) : syntheticGridSize;
+
+		Network network;
+		TransitSchedule schedule;
+		Vehicles vehicles;
+		if (gridSize > 0) {
+			log.info("Creating a synthetic grid of " + gridSize + " x " + gridSize + " nodes...");
+			network = SyntheticRailScenario.createGridNetwork(gridSize, syntheticLinkLength);
+			schedule = SyntheticRailScenario.createGridSchedule(network, gridSize, syntheticDepartures, syntheticHeadway);
+			vehicles = ScheduleTools.createVehicles(schedule);
+		} else {
+			log.info("Reading the railsim input...");
+			network = NetworkTools.readNetwork(MATSIM_INPUT + NETWORK);
+			schedule = ScheduleTools.readTransitSchedule(MATSIM_INPUT + SCHEDULE);
+			vehicles = ScheduleTools.readVehicles(MATSIM_INPUT + VEHICLES);
+		}
+
+		ScheduleScaler.multiplyDepartures(schedule, vehicles, factor, compression);
+		ScheduleScaler.cloneOnParallelTracks(schedule, network, vehicles, tracks, parallelTrackDistance);
+
+		log.info("Writing the scaled scenario to " + OUTPUT + "...");
+		try {
+			Files.createDirectories(Path.of(OUTPUT));
+			Files.copy(Path.of(VEHICLE_TYPES), Path.of(OUTPUT, "vehicleTypes.xml"), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		NetworkTools.writeNetwork(network, OUTPUT + NETWORK);
+		ScheduleTools.writeTransitSchedule(schedule, OUTPUT + SCHEDULE);
+		ScheduleTools.writeVehicles(vehicles, OUTPUT + VEHICLES);
+
+		Config config = ConfigUtils.loadConfig(RUN_CONFIG, new SwitzerlandRailwayConfigGroup());
+		config.controller().setOutputDirectory(OUTPUT_RUN_DIRECTORY);
+		new ConfigWriter(config).write(OUTPUT + "config.xml");
+
+		int departures = schedule.getTransitLines().values().stream()
+				.flatMap(line -> line.getRoutes().values().stream())
+				.mapToInt(route -> route.getDepartures().size())
+				.sum();
+		log.info("Scaled scenario: " + network.getLinks().size() + " links, " + schedule.getTransitLines().size() + " lines, "
+				+ departures + " departures, " + vehicles.getVehicles().size() + " vehicles.");
+	}
+
+}
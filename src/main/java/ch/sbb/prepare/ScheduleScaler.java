@@ -0,0 +1,204 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.prepare;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.utils.objectattributes.attributable.AttributesUtils;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.Vehicles;
+
+/**
+ * Scales up a mapped schedule to stress the railsim engine with more traffic than the real timetable.
+ *
+ * The ids of all added objects are derived from the original ids, so the scaled scenario is reproducible.
+ */
+public final class ScheduleScaler {
+	private static final Logger log = LogManager.getLogger(ScheduleScaler.class);
+
+	// headway after the last departure of a route with a single departure
+	private static final double DEFAULT_HEADWAY = 3600.;
+
+	private ScheduleScaler() {
+	}
+
+	/**
+	 * Adds factor - 1 departures after each departure of a route. Without compression, the added departures are evenly
+	 * spread over the headway to the next departure. With a compression below 1, they follow the original departure in
+	 * shorter intervals, e.g. 0.5 puts all added departures into the first half of the headway. After the last departure
+	 * of a route, the headway to its previous departure is used.
+	 */
+	public static void multiplyDepartures(TransitSchedule schedule, Vehicles vehicles, int factor, double headwayCompression) {
+		if (factor <= 1) {
+			return;
+		}
+		TransitScheduleFactory factory = schedule.getFactory();
+		int added = 0;
+		for (TransitLine line : schedule.getTransitLines().values()) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				List<Departure> departures = new ArrayList<>(route.getDepartures().values());
+				departures.sort(Comparator.comparingDouble(Departure::getDepartureTime));
+				for (int i = 0; i < departures.size(); i++) {
+					Departure departure = departures.get(i);
+					double headway;
+					if (i + 1 < departures.size()) {
+						headway = departures.get(i + 1).getDepartureTime() - departure.getDepartureTime();
+					} else if (i > 0) {
+						headway = departure.getDepartureTime() - departures.get(i - 1).getDepartureTime();
+					} else {
+						headway = DEFAULT_HEADWAY;
+					}
+					for (int k = 1; k < factor; k++) {
+						double time = departure.getDepartureTime() + k * headway / factor * headwayCompression;
+						Departure copy = factory.createDeparture(Id.create(departure.getId() + "_x" + k, Departure.class), time);
+						copy.setVehicleId(copyVehicle(vehicles, departure.getVehicleId(), "_x" + k));
+						route.addDeparture(copy);
+						added++;
+					}
+				}
+			}
+		}
+		log.info("Added " + added + " departures.");
+	}
+
+	/**
+	 * Adds copies of the network, the stop facilities and the transit lines on parallel tracks. Copy c is shifted by c
+	 * times the track distance to the north and is not connected to the other tracks. The copied lines keep their names,
+	 * so they get the same vehicle types.
+	 */
+	public static void cloneOnParallelTracks(TransitSchedule schedule, Network network, Vehicles vehicles, int copies, double trackDistance) {
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		List<Link> links = new ArrayList<>(network.getLinks().values());
+		List<TransitStopFacility> stops = new ArrayList<>(schedule.getFacilities().values());
+		List<TransitLine> lines = new ArrayList<>(schedule.getTransitLines().values());
+		TransitScheduleFactory factory = schedule.getFactory();
+
+		for (int c = 1; c <= copies; c++) {
+			String suffix = "_t" + c;
+			double shift = c * trackDistance;
+
+			for (Node node : nodes) {
+				Coord coord = new Coord(node.getCoord().getX(), node.getCoord().getY() + shift);
+				Node copy = network.getFactory().createNode(Id.createNodeId(node.getId() + suffix), coord);
+				AttributesUtils.copyAttributesFromTo(node, copy);
+				network.addNode(copy);
+			}
+			for (Link link : links) {
+				Node fromNode = network.getNodes().get(Id.createNodeId(link.getFromNode().getId() + suffix));
+				Node toNode = network.getNodes().get(Id.createNodeId(link.getToNode().getId() + suffix));
+				Link copy = network.getFactory().createLink(Id.createLinkId(link.getId() + suffix), fromNode, toNode);
+				copy.setLength(link.getLength());
+				copy.setFreespeed(link.getFreespeed());
+				copy.setCapacity(link.getCapacity());
+				copy.setNumberOfLanes(link.getNumberOfLanes());
+				copy.setAllowedModes(link.getAllowedModes());
+				AttributesUtils.copyAttributesFromTo(link, copy);
+				network.addLink(copy);
+			}
+
+			for (TransitStopFacility stop : stops) {
+				Coord coord = new Coord(stop.getCoord().getX(), stop.getCoord().getY() + shift);
+				TransitStopFacility copy = factory.createTransitStopFacility(Id.create(stop.getId() + suffix, TransitStopFacility.class), coord, stop.getIsBlockingLane());
+				copy.setName(stop.getName());
+				if (stop.getLinkId() != null) {
+					copy.setLinkId(Id.createLinkId(stop.getLinkId() + suffix));
+				}
+				AttributesUtils.copyAttributesFromTo(stop, copy);
+				schedule.addStopFacility(copy);
+			}
+
+			for (TransitLine line : lines) {
+				TransitLine lineCopy = factory.createTransitLine(Id.create(line.getId() + suffix, TransitLine.class));
+				lineCopy.setName(line.getName());
+				AttributesUtils.copyAttributesFromTo(line, lineCopy);
+				for (TransitRoute route : line.getRoutes().values()) {
+					lineCopy.addRoute(copyRoute(schedule, vehicles, route, suffix));
+				}
+				schedule.addTransitLine(lineCopy);
+			}
+		}
+		log.info("Added " + copies + " parallel tracks, the network has " + network.getLinks().size() + " links and the schedule "
+				+ schedule.getTransitLines().size() + " lines.");
+	}
+
+	private static TransitRoute copyRoute(TransitSchedule schedule, Vehicles vehicles, TransitRoute route, String suffix) {
+		TransitScheduleFactory factory = schedule.getFactory();
+		NetworkRoute networkRoute = null;
+		if (route.getRoute() != null) {
+			List<Id<Link>> linkIds = new ArrayList<>(route.getRoute().getLinkIds().size());
+			for (Id<Link> linkId : route.getRoute().getLinkIds()) {
+				linkIds.add(Id.createLinkId(linkId + suffix));
+			}
+			networkRoute = RouteUtils.createLinkNetworkRouteImpl(Id.createLinkId(route.getRoute().getStartLinkId() + suffix), linkIds,
+					Id.createLinkId(route.getRoute().getEndLinkId() + suffix));
+		}
+		List<TransitRouteStop> stops = new ArrayList<>(route.getStops().size());
+		for (TransitRouteStop stop : route.getStops()) {
+			TransitStopFacility facility = schedule.getFacilities().get(Id.create(stop.getStopFacility().getId() + suffix, TransitStopFacility.class));
+			TransitRouteStop.Builder<?> builder = factory.createTransitRouteStopBuilder(facility).awaitDepartureTime(stop.isAwaitDepartureTime());
+			stop.getArrivalOffset().ifDefined(builder::arrivalOffset);
+			stop.getDepartureOffset().ifDefined(builder::departureOffset);
+			stops.add(builder.build());
+		}
+		TransitRoute copy = factory.createTransitRoute(Id.create(route.getId() + suffix, TransitRoute.class), networkRoute, stops, route.getTransportMode());
+		copy.setDescription(route.getDescription());
+		AttributesUtils.copyAttributesFromTo(route, copy);
+		for (Departure departure : route.getDepartures().values()) {
+			Departure departureCopy = factory.createDeparture(Id.create(departure.getId() + suffix, Departure.class), departure.getDepartureTime());
+			departureCopy.setVehicleId(copyVehicle(vehicles, departure.getVehicleId(), suffix));
+			copy.addDeparture(departureCopy);
+		}
+		return copy;
+	}
+
+	private static Id<Vehicle> copyVehicle(Vehicles vehicles, Id<Vehicle> vehicleId, String suffix) {
+		if (vehicleId == null) {
+			return null;
+		}
+		Vehicle vehicle = vehicles.getVehicles().get(vehicleId);
+		if (vehicle == null) {
+			// the copied departure would reference a vehicle which does not exist
+			throw new IllegalArgumentException("Vehicle " + vehicleId + " of a copied departure is not in the vehicles.");
+		}
+		Id<Vehicle> copyId = Id.createVehicleId(vehicleId + suffix);
+		if (!vehicles.getVehicles().containsKey(copyId)) {
+			vehicles.addVehicle(vehicles.getFactory().createVehicle(copyId, vehicle.getType()));
+		}
+		return copyId;
+	}
+
+}
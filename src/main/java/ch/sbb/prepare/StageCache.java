@@ -0,0 +1,214 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.prepare;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.config.ConfigGroup;
+
+/**
+ * Remembers a fingerprint of the inputs and parameters of each preparation stage, so that a stage can be skipped
+ * if nothing upstream changed since its outputs were written.
+ *
+ * A stage fingerprint should include the fingerprints of the stages it depends on, e.g. the mapping stage includes
+ * the fingerprints of the schedule filtering and the osm conversion.
+ */
+final class StageCache {
+	private static final Logger log = LogManager.getLogger(StageCache.class);
+
+	// files next to the .shp file which belong to a shape file, e.g. the attributes (.dbf) and the coordinate system (.prj)
+	private static final List<String> SHAPE_FILE_SIDECARS = List.of(".shx", ".dbf", ".prj", ".cpg", ".qix", ".sbn", ".sbx");
+
+	private final String directory;
+	private final boolean enabled;
+
+	/**
+	 * @param enabled if false, no input files are inspected, no fingerprints are stored and every stage is considered outdated.
+	 */
+	StageCache(String directory, boolean enabled) {
+		this.directory = directory;
+		this.enabled = enabled;
+	}
+
+	Fingerprint fingerprint(String stage) {
+		return new Fingerprint(stage, this.enabled);
+	}
+
+	/**
+	 * @return true if the stage was completed with the same fingerprint before and all its output files still exist.
+	 */
+	boolean isUpToDate(String stage, String fingerprint, String... outputFiles) {
+		if (!this.enabled) {
+			return false;
+		}
+		Path file = fingerprintFile(stage);
+		if (!Files.exists(file)) {
+			return false;
+		}
+		for (String outputFile : outputFiles) {
+			if (!new File(outputFile).exists()) {
+				return false;
+			}
+		}
+		try {
+			if (Files.readString(file, StandardCharsets.UTF_8).trim().equals(fingerprint)) {
+				log.info("Stage " + stage + " is up to date, skipping it.");
+				return true;
+			}
+			return false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Must only be called after all output files of the stage were written.
+	 */
+	void markDone(String stage, String fingerprint) {
+		if (!this.enabled) {
+			return;
+		}
+		try {
+			Files.writeString(fingerprintFile(stage), fingerprint, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Invalidates the stage, e.g. before its outputs are overwritten.
+	 */
+	void invalidate(String stage) {
+		if (!this.enabled) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(fingerprintFile(stage));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Path fingerprintFile(String stage) {
+		return Path.of(directory, stage + ".fingerprint");
+	}
+
+	static final class Fingerprint {
+		private final MessageDigest digest;
+		private final boolean enabled;
+
+		private Fingerprint(String stage, boolean enabled) {
+			this.enabled = enabled;
+			try {
+				this.digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+			addParam(stage);
+		}
+
+		Fingerprint addParam(Object param) {
+			this.digest.update(String.valueOf(param).getBytes(StandardCharsets.UTF_8));
+			this.digest.update((byte) 0);
+			return this;
+		}
+
+		/**
+		 * Adds the size and the modification time of the file, or a marker if the file is not set. The content is not
+		 * read since the osm file has several GB, so only touching or replacing a file invalidates the stage.
+		 */
+		Fingerprint addFile(String file) {
+			if (file == null) {
+				return addParam("no file");
+			}
+			addParam(file);
+			if (!this.enabled) {
+				return this;
+			}
+			try {
+				Path path = Path.of(file);
+				addParam(Files.size(path));
+				addParam(Files.getLastModifiedTime(path).toMillis());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return this;
+		}
+
+		/**
+		 * Adds the geometry file of a shape file and all its sidecar files which exist, e.g. the attributes, the index
+		 * and the coordinate system.
+		 */
+		Fingerprint addShapeFile(String shpFile) {
+			addFile(shpFile);
+			if (shpFile != null) {
+				String baseName = shpFile.substring(0, shpFile.length() - ".shp".length());
+				for (String extension : SHAPE_FILE_SIDECARS) {
+					if (new File(baseName + extension).exists()) {
+						addParam(extension);
+						addFile(baseName + extension);
+					}
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Adds all parameters and parameter sets of the config group in a stable order, except for the ignored
+		 * parameters of the group itself, e.g. a number of threads which does not change the result.
+		 */
+		Fingerprint addConfigGroup(ConfigGroup configGroup, String... ignoredParams) {
+			Set<String> ignored = Set.of(ignoredParams);
+			addParam(configGroup.getName());
+			for (Map.Entry<String, String> e : new TreeMap<>(configGroup.getParams()).entrySet()) {
+				if (ignored.contains(e.getKey())) {
+					continue;
+				}
+				addParam(e.getKey());
+				addParam(e.getValue());
+			}
+			for (Map.Entry<String, ? extends Collection<? extends ConfigGroup>> e : new TreeMap<>(configGroup.getParameterSets()).entrySet()) {
+				for (ConfigGroup parameterSet : e.getValue()) {
+					addConfigGroup(parameterSet);
+				}
+			}
+			return this;
+		}
+
+		String compute() {
+			return HexFormat.of().formatHex(this.digest.digest());
+		}
+	}
+
+}
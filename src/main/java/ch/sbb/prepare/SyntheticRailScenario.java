@@ -0,0 +1,164 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.prepare;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.pt2matsim.tools.ScheduleTools;
+
+/**
+ * Fully synthetic rail scenario: a square grid of bidirectional rail links around Olten in CH1903+/LV95.
+ *
+ * Each row and each column of the grid is served by one transit line with a route in each direction and a stop at
+ * every node. The line names cycle through the product prefixes, so all vehicle types of the registry are used.
+ */
+public final class SyntheticRailScenario {
+
+	private static final double CENTER_X = 2635000.;
+	private static final double CENTER_Y = 1244500.;
+	private static final double FREESPEED = 44.444;
+	private static final double DWELL_TIME = 60.;
+	private static final double SCHEDULE_SPEED = 30.;
+
+	private static final String[] LINE_PREFIXES = { "IC", "IR", "RE", "S", "EC" };
+
+	private SyntheticRailScenario() {
+	}
+
+	public static Network createGridNetwork(int gridSize, double linkLength) {
+		checkGridSize(gridSize);
+		Network network = NetworkUtils.createNetwork();
+		double offset = (gridSize - 1) * linkLength / 2.;
+		for (int row = 0; row < gridSize; row++) {
+			for (int col = 0; col < gridSize; col++) {
+				Coord coord = new Coord(CENTER_X - offset + col * linkLength, CENTER_Y - offset + row * linkLength);
+				network.addNode(network.getFactory().createNode(nodeId(row, col), coord));
+			}
+		}
+		for (int row = 0; row < gridSize; row++) {
+			for (int col = 0; col < gridSize; col++) {
+				if (col + 1 < gridSize) {
+					addLink(network, nodeId(row, col), nodeId(row, col + 1), linkLength);
+					addLink(network, nodeId(row, col + 1), nodeId(row, col), linkLength);
+				}
+				if (row + 1 < gridSize) {
+					addLink(network, nodeId(row, col), nodeId(row + 1, col), linkLength);
+					addLink(network, nodeId(row + 1, col), nodeId(row, col), linkLength);
+				}
+			}
+		}
+		return network;
+	}
+
+	private static Id<Node> nodeId(int row, int col) {
+		return Id.createNodeId(row + "_" + col);
+	}
+
+	private static void addLink(Network network, Id<Node> from, Id<Node> to, double length) {
+		Link link = network.getFactory().createLink(Id.createLinkId(from + "-" + to), network.getNodes().get(from), network.getNodes().get(to));
+		link.setLength(length);
+		link.setFreespeed(FREESPEED);
+		link.setCapacity(9999.);
+		link.setNumberOfLanes(1.);
+		link.setAllowedModes(Set.of("rail"));
+		network.addLink(link);
+	}
+
+	/**
+	 * @param departures departures per route, starting at 06:00.
+	 * @param headway time between the departures of a route [s].
+	 */
+	public static TransitSchedule createGridSchedule(Network network, int gridSize, int departures, double headway) {
+		checkGridSize(gridSize);
+		TransitSchedule schedule = ScheduleTools.createSchedule();
+		TransitScheduleFactory factory = schedule.getFactory();
+		int lineCount = 0;
+		for (int i = 0; i < gridSize; i++) {
+			for (boolean isRow : new boolean[] { true, false }) {
+				List<Id<Node>> nodes = new ArrayList<>();
+				for (int j = 0; j < gridSize; j++) {
+					nodes.add(isRow ? nodeId(i, j) : nodeId(j, i));
+				}
+				TransitLine line = factory.createTransitLine(Id.create("line_" + lineCount, TransitLine.class));
+				line.setName(LINE_PREFIXES[lineCount % LINE_PREFIXES.length] + lineCount);
+				line.addRoute(createRoute(schedule, network, Id.create(line.getId() + "_f", TransitRoute.class), nodes, departures, headway));
+				line.addRoute(createRoute(schedule, network, Id.create(line.getId() + "_b", TransitRoute.class), nodes.reversed(), departures, headway));
+				schedule.addTransitLine(line);
+				lineCount++;
+			}
+		}
+		return schedule;
+	}
+
+	private static void checkGridSize(int gridSize) {
+		// a route needs a first, a last and at least one link in between
+		if (gridSize < 3) {
+			throw new IllegalArgumentException("The grid size must be at least 3, but is " + gridSize + ".");
+		}
+	}
+
+	private static TransitRoute createRoute(TransitSchedule schedule, Network network, Id<TransitRoute> routeId, List<Id<Node>> nodes,
+			int departures, double headway) {
+		TransitScheduleFactory factory = schedule.getFactory();
+		List<Id<Link>> linkIds = new ArrayList<>();
+		List<TransitRouteStop> stops = new ArrayList<>();
+		double offset = 0.;
+		for (int i = 1; i < nodes.size(); i++) {
+			Id<Link> linkId = Id.createLinkId(nodes.get(i - 1) + "-" + nodes.get(i));
+			linkIds.add(linkId);
+			Link link = network.getLinks().get(linkId);
+			Id<TransitStopFacility> stopId = Id.create("stop_" + linkId, TransitStopFacility.class);
+			TransitStopFacility stop = schedule.getFacilities().get(stopId);
+			if (stop == null) {
+				stop = factory.createTransitStopFacility(stopId, link.getToNode().getCoord(), false);
+				stop.setLinkId(linkId);
+				stop.setName(stopId.toString());
+				schedule.addStopFacility(stop);
+			}
+			TransitRouteStop routeStop = factory.createTransitRouteStop(stop, offset, offset + DWELL_TIME);
+			routeStop.setAwaitDepartureTime(true);
+			stops.add(routeStop);
+			offset += DWELL_TIME + link.getLength() / SCHEDULE_SPEED;
+		}
+		NetworkRoute networkRoute = RouteUtils.createLinkNetworkRouteImpl(linkIds.get(0), linkIds.subList(1, linkIds.size() - 1), linkIds.get(linkIds.size() - 1));
+		TransitRoute route = factory.createTransitRoute(routeId, networkRoute, stops, "rail");
+		for (int d = 0; d < departures; d++) {
+			route.addDeparture(factory.createDeparture(Id.create(routeId + "_" + d, Departure.class), 6 * 3600. + d * headway));
+		}
+		return route;
+	}
+
+}
@@ -0,0 +1,72 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.run;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Heap footprint of the scenario containers, measured as the difference of the used heap after a full garbage
+ * collection before and after loading or adjusting a container.
+ *
+ * The numbers are estimates, since the JVM does not guarantee that System.gc() collects all garbage. The garbage
+ * collections take time, so the report is only created on request.
+ */
+final class HeapFootprintReport {
+	private static final Logger log = LogManager.getLogger(HeapFootprintReport.class);
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final Map<String, Long> footprints = new LinkedHashMap<>();
+	private final long baseline;
+	private long last;
+
+	HeapFootprintReport() {
+		this.baseline = usedHeapAfterGc();
+		this.last = this.baseline;
+	}
+
+	/**
+	 * Adds the heap growth since the last measurement to the container.
+	 */
+	void measure(String container) {
+		long used = usedHeapAfterGc();
+		this.footprints.merge(container, used - this.last, Long::sum);
+		this.last = used;
+	}
+
+	void log() {
+		StringBuilder report = new StringBuilder("Heap footprint of the scenario:");
+		this.footprints.forEach((container, bytes) -> report.append(String.format(Locale.ROOT, "%n  %-24s %10.1f MB", container, bytes / 1e6)));
+		report.append(String.format(Locale.ROOT, "%n  %-24s %10.1f MB", "total", (this.last - this.baseline) / 1e6));
+		log.info(report.toString());
+	}
+
+	private long usedHeapAfterGc() {
+		System.gc();
+		return this.memory.getHeapMemoryUsage().getUsed();
+	}
+
+}
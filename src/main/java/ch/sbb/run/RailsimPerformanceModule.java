@@ -0,0 +1,45 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.run;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.controler.AbstractModule;
+
+/**
+ * Installs the RailsimPerformanceMonitor, which records the wall time of the run phases and a time series of the
+ * simulation speed, the railsim state and the heap in the output directory.
+ */
+public final class RailsimPerformanceModule extends AbstractModule {
+
+	private final Scenario scenario;
+
+	public RailsimPerformanceModule(Scenario scenario) {
+		this.scenario = scenario;
+	}
+
+	@Override
+	public void install() {
+		RailsimPerformanceMonitor monitor = new RailsimPerformanceMonitor(this.scenario);
+		addControlerListenerBinding().toInstance(monitor);
+		addMobsimListenerBinding().toInstance(monitor);
+		addEventHandlerBinding().toInstance(monitor);
+	}
+
+}
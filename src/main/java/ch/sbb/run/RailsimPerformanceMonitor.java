@@ -0,0 +1,375 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.run;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.HasLinkId;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.core.api.experimental.events.handler.BasicEventHandler;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.events.ScoringEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.events.StartupEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.core.controler.listener.ScoringListener;
+import org.matsim.core.controler.listener.ShutdownListener;
+import org.matsim.core.controler.listener.StartupListener;
+import org.matsim.core.mobsim.framework.events.MobsimBeforeCleanupEvent;
+import org.matsim.core.mobsim.framework.events.MobsimBeforeSimStepEvent;
+import org.matsim.core.mobsim.framework.events.MobsimInitializedEvent;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeCleanupListener;
+import org.matsim.core.mobsim.framework.listeners.MobsimBeforeSimStepListener;
+import org.matsim.core.mobsim.framework.listeners.MobsimInitializedListener;
+import org.matsim.core.utils.io.IOUtils;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Records the wall time of the run phases and samples the simulation speed, the railsim state and the heap.
+ *
+ * The phases of an iteration are delimited by the calls of this listener: {@code beforeMobsim} from the iteration start
+ * to the initialized QSim, {@code qsim} until the QSim cleanup, {@code eventWriting} until the scoring event, which
+ * includes closing the events files, and {@code scoring} until the iteration end. The phases of the scenario loading
+ * are recorded by RunSwitzerlandRailway.loadScenario. Listeners of other modules which are called in the same phase
+ * may be counted to either side of a boundary.
+ *
+ * The time series is sampled every performanceSampleInterval simulated seconds. Since the events may be processed on
+ * another thread, the event counts, active trains and reserved links may lag behind the simulation time.
+ */
+final class RailsimPerformanceMonitor implements StartupListener, IterationStartsListener, ScoringListener,
+		IterationEndsListener, ShutdownListener, MobsimInitializedListener, MobsimBeforeSimStepListener,
+		MobsimBeforeCleanupListener, BasicEventHandler {
+	private static final Logger log = LogManager.getLogger(RailsimPerformanceMonitor.class);
+
+	static final String LOADING_PHASES_ELEMENT = "railsimLoadingPhases";
+
+	private static final String PHASES_FILE = "railsim_performance_phases.csv";
+	private static final String TIME_SERIES_FILE = "railsim_performance_timeseries.csv";
+	private static final String SUMMARY_FILE = "railsim_performance.json";
+	private static final String SEPARATOR = ";";
+
+	private static final String LINK_STATE_EVENT = "railsimLinkStateChangeEvent";
+	private static final String ATTRIBUTE_STATE = "state";
+	private static final String STATE_FREE = "FREE";
+
+	private final Scenario scenario;
+	private final double sampleInterval;
+	private final int port;
+
+	private BufferedWriter phasesWriter;
+	private BufferedWriter timeSeriesWriter;
+	private HttpServer server;
+
+	private final Map<String, Double> loadingPhases;
+	private final List<Map<String, Double>> iterationPhases = new ArrayList<>();
+	private Map<String, Double> currentPhases;
+	private int iteration;
+	private long phaseStart;
+
+	// written by the events processing, read by the mobsim thread
+	private volatile long events = 0;
+	private volatile int activeTrains = 0;
+	private volatile int reservedLinks = 0;
+	private final BitSet reserved = new BitSet();
+
+	private double nextSampleTime;
+	private double lastSampleSimTime;
+	private long lastSampleWallTime;
+	private long lastSampleEvents;
+	private long mobsimStart;
+	private volatile String latestSample = "";
+
+	private long peakHeapUsed = 0;
+	private int peakActiveTrains = 0;
+	private int peakReservedLinks = 0;
+
+	@SuppressWarnings("unchecked")
+	RailsimPerformanceMonitor(Scenario scenario) {
+		this.scenario = scenario;
+		SwitzerlandRailwayConfigGroup railwayConfig = ConfigUtils.addOrGetModule(scenario.getConfig(), SwitzerlandRailwayConfigGroup.class);
+		this.sampleInterval = railwayConfig.performanceSampleInterval;
+		this.port = railwayConfig.performanceMetricsPort;
+		Object loading = scenario.getScenarioElement(LOADING_PHASES_ELEMENT);
+		this.loadingPhases = loading == null ? Map.of() : (Map<String, Double>) loading;
+	}
+
+	/**
+	 * Adds the wall time of a scenario loading phase to the scenario, so it is reported with the phases of the run.
+	 */
+	@SuppressWarnings("unchecked")
+	static void addLoadingPhase(Scenario scenario, String phase, long startNanos) {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		Map<String, Double> phases = (Map<String, Double>) scenario.getScenarioElement(LOADING_PHASES_ELEMENT);
+		if (phases == null) {
+			phases = new LinkedHashMap<>();
+			scenario.addScenarioElement(LOADING_PHASES_ELEMENT, phases);
+		}
+		phases.merge(phase, seconds, Double::sum);
+		log.info(String.format(Locale.ROOT, "%s took %.1f s.", phase, seconds));
+	}
+
+	private String getOutputFile(String file) {
+		return this.scenario.getConfig().controller().getOutputDirectory() + "/" + file;
+	}
+
+	@Override
+	public void notifyStartup(StartupEvent event) {
+		this.phasesWriter = IOUtils.getBufferedWriter(getOutputFile(PHASES_FILE));
+		this.timeSeriesWriter = IOUtils.getBufferedWriter(getOutputFile(TIME_SERIES_FILE));
+		writeLine(this.phasesWriter, "iteration", "phase", "wallTime_s");
+		writeLine(this.timeSeriesWriter, "iteration", "simTime", "wallTime_s", "simSecondsPerWallSecond", "events", "eventsPerWallSecond",
+				"activeTrains", "reservedLinks", "heapUsed_MB", "heapCommitted_MB", "gcCount", "gcTime_s");
+		this.loadingPhases.forEach((phase, seconds) -> writeLine(this.phasesWriter, "", phase, format(seconds)));
+		flush();
+
+		if (this.port > 0) {
+			try {
+				this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port), 0);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot start the metrics endpoint on port " + this.port, e);
+			}
+			this.server.createContext("/metrics", exchange -> {
+				byte[] body = this.latestSample.getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			});
+			this.server.start();
+			log.info("Serving the performance metrics on http://localhost:" + this.port + "/metrics");
+		}
+	}
+
+	@Override
+	public void notifyIterationStarts(IterationStartsEvent event) {
+		this.iteration = event.getIteration();
+		this.currentPhases = new LinkedHashMap<>();
+		this.iterationPhases.add(this.currentPhases);
+		this.phaseStart = System.nanoTime();
+	}
+
+	@Override
+	public void notifyMobsimInitialized(MobsimInitializedEvent<?> e) {
+		endPhase("beforeMobsim");
+		this.mobsimStart = this.phaseStart;
+		this.lastSampleWallTime = this.phaseStart;
+		this.lastSampleEvents = this.events;
+		this.lastSampleSimTime = Double.NaN;
+	}
+
+	@Override
+	public void notifyMobsimBeforeSimStep(MobsimBeforeSimStepEvent<?> e) {
+		if (this.sampleInterval <= 0) {
+			return;
+		}
+		double simTime = e.getSimulationTime();
+		if (Double.isNaN(this.lastSampleSimTime)) {
+			this.lastSampleSimTime = simTime;
+			this.nextSampleTime = simTime + this.sampleInterval;
+		} else if (simTime >= this.nextSampleTime) {
+			sample(simTime);
+			this.nextSampleTime = simTime + this.sampleInterval;
+		}
+	}
+
+	private void sample(double simTime) {
+		long now = System.nanoTime();
+		long eventCount = this.events;
+		int trains = this.activeTrains;
+		int links = this.reservedLinks;
+		double wallTime = (now - this.lastSampleWallTime) / 1e9;
+		double simSpeed = (simTime - this.lastSampleSimTime) / wallTime;
+		double eventRate = (eventCount - this.lastSampleEvents) / wallTime;
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		long gcCount = 0;
+		long gcTime = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(0, gc.getCollectionCount());
+			gcTime += Math.max(0, gc.getCollectionTime());
+		}
+
+		writeLine(this.timeSeriesWriter, Integer.toString(this.iteration), format(simTime), format((now - this.mobsimStart) / 1e9),
+				format(simSpeed), Long.toString(eventCount), format(eventRate), Integer.toString(trains), Integer.toString(links),
+				format(heap.getUsed() / 1e6), format(heap.getCommitted() / 1e6), Long.toString(gcCount), format(gcTime / 1e3));
+
+		this.latestSample = "railsim_iteration " + this.iteration + "\n"
+				+ "railsim_sim_time_seconds " + format(simTime) + "\n"
+				+ "railsim_sim_seconds_per_wall_second " + format(simSpeed) + "\n"
+				+ "railsim_events_total " + eventCount + "\n"
+				+ "railsim_events_per_second " + format(eventRate) + "\n"
+				+ "railsim_active_trains " + trains + "\n"
+				+ "railsim_reserved_links " + links + "\n"
+				+ "jvm_heap_used_bytes " + heap.getUsed() + "\n"
+				+ "jvm_heap_committed_bytes " + heap.getCommitted() + "\n"
+				+ "jvm_gc_collections_total " + gcCount + "\n"
+				+ "jvm_gc_time_seconds_total " + format(gcTime / 1e3) + "\n";
+
+		this.peakHeapUsed = Math.max(this.peakHeapUsed, heap.getUsed());
+		this.peakActiveTrains = Math.max(this.peakActiveTrains, trains);
+		this.peakReservedLinks = Math.max(this.peakReservedLinks, links);
+		this.lastSampleSimTime = simTime;
+		this.lastSampleWallTime = now;
+		this.lastSampleEvents = eventCount;
+	}
+
+	@Override
+	public void notifyMobsimBeforeCleanup(MobsimBeforeCleanupEvent<?> e) {
+		endPhase("qsim");
+	}
+
+	@Override
+	public void notifyScoring(ScoringEvent event) {
+		endPhase("eventWriting");
+	}
+
+	@Override
+	public void notifyIterationEnds(IterationEndsEvent event) {
+		endPhase("scoring");
+		flush();
+		log.info("Iteration " + this.iteration + " phases [s]: " + this.currentPhases);
+	}
+
+	private void endPhase(String phase) {
+		long now = System.nanoTime();
+		double seconds = (now - this.phaseStart) / 1e9;
+		this.currentPhases.put(phase, seconds);
+		writeLine(this.phasesWriter, Integer.toString(this.iteration), phase, format(seconds));
+		this.phaseStart = now;
+	}
+
+	@Override
+	public void handleEvent(Event event) {
+		this.events++;
+		if (event instanceof VehicleEntersTrafficEvent) {
+			this.activeTrains++;
+		} else if (event instanceof VehicleLeavesTrafficEvent) {
+			this.activeTrains--;
+		} else if (LINK_STATE_EVENT.equals(event.getEventType()) && event instanceof HasLinkId hasLinkId) {
+			int index = hasLinkId.getLinkId().index();
+			boolean isReserved = !STATE_FREE.equals(event.getAttributes().get(ATTRIBUTE_STATE));
+			if (isReserved != this.reserved.get(index)) {
+				this.reserved.set(index, isReserved);
+				this.reservedLinks += isReserved ? 1 : -1;
+			}
+		}
+	}
+
+	@Override
+	public void reset(int iteration) {
+		this.events = 0;
+		this.activeTrains = 0;
+		this.reservedLinks = 0;
+		this.reserved.clear();
+	}
+
+	@Override
+	public void notifyShutdown(ShutdownEvent event) {
+		if (this.server != null) {
+			this.server.stop(0);
+		}
+		try {
+			this.phasesWriter.close();
+			this.timeSeriesWriter.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		writeSummary();
+	}
+
+	private void writeSummary() {
+		long gcCount = 0;
+		long gcTime = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(0, gc.getCollectionCount());
+			gcTime += Math.max(0, gc.getCollectionTime());
+		}
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"loading\": ").append(toJson(this.loadingPhases)).append(",\n  \"iterations\": [");
+		for (int i = 0; i < this.iterationPhases.size(); i++) {
+			json.append(i == 0 ? "\n    " : ",\n    ").append(toJson(this.iterationPhases.get(i)));
+		}
+		json.append("\n  ],\n");
+		json.append("  \"peakHeapUsed_MB\": ").append(format(this.peakHeapUsed / 1e6)).append(",\n");
+		json.append("  \"maxHeap_MB\": ").append(format(Runtime.getRuntime().maxMemory() / 1e6)).append(",\n");
+		json.append("  \"peakActiveTrains\": ").append(this.peakActiveTrains).append(",\n");
+		json.append("  \"peakReservedLinks\": ").append(this.peakReservedLinks).append(",\n");
+		json.append("  \"gcCount\": ").append(gcCount).append(",\n");
+		json.append("  \"gcTime_s\": ").append(format(gcTime / 1e3)).append("\n}\n");
+		try (BufferedWriter writer = IOUtils.getBufferedWriter(getOutputFile(SUMMARY_FILE))) {
+			writer.write(json.toString());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String toJson(Map<String, Double> phases) {
+		StringBuilder json = new StringBuilder("{");
+		phases.forEach((phase, seconds) -> json.append(json.length() == 1 ? "" : ", ").append('"').append(phase).append("\": ").append(format(seconds)));
+		return json.append('}').toString();
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static void writeLine(BufferedWriter writer, String... values) {
+		try {
+			writer.write(String.join(SEPARATOR, values));
+			writer.newLine();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void flush() {
+		try {
+			this.phasesWriter.flush();
+			this.timeSeriesWriter.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.run;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import ch.sbb.matsim.contrib.railsim.RailsimUtils;
+
+/**
+ * Groups consecutive links into block sections and assigns one railsim resource per block section, shared by both
+ * directions of a track.
+ *
+ * A block section ends at switches (nodes with more than two neighbours), at the end of a track, at signals (nodes with
+ * the attribute {@value RunSwitzerlandRailway#NODE_ATTRIBUTE_SIGNAL} set to true, see GenerateRailsimInput) and before
+ * and after stop links. Since the osm data does not contain all signals, every block section, also one between two
+ * signals, additionally ends once it exceeds the configured block length. Stop links are resources of their own.
+ *
+ * The resources are first collected as int per link index and only then written to the link attributes. In lean
+ * mode, the attributes which match the railsim defaults are not written: the train capacity if it is
+ * {@value #DEFAULT_TRAIN_CAPACITY} and the resource id of resources with a single link, since railsim treats a link
+ * without resource as a resource of its own. Resource ids and train capacities which are already on the links, e.g. on
+ * a network copied from an adjusted one, are removed first, so they cannot mix with the new resources.
+ */
+final class RailsimResourceBuilder {
+	private static final Logger log = LogManager.getLogger(RailsimResourceBuilder.class);
+
+	// train capacity of a link without capacity attribute in railsim
+	static final int DEFAULT_TRAIN_CAPACITY = 1;
+
+	private final double blockLength;
+	private final int trainCapacity;
+	private final boolean lean;
+
+	private final BitSet assigned = new BitSet();
+	private final Set<Id<Link>> stopLinks = new HashSet<>();
+	private int[] linkResources = new int[0];
+	private int[] resourceLinkCounts = new int[0];
+	private int resourceCnt = 0;
+
+	RailsimResourceBuilder(double blockLength, int trainCapacity, boolean lean) {
+		this.blockLength = blockLength;
+		this.trainCapacity = trainCapacity;
+		this.lean = lean;
+	}
+
+	void addStopLinks(TransitSchedule schedule) {
+		for (TransitStopFacility stop : schedule.getFacilities().values()) {
+			if (stop.getLinkId() != null) {
+				this.stopLinks.add(stop.getLinkId());
+			}
+		}
+	}
+
+	void run(Network network) {
+		this.linkResources = new int[Id.getNumberOfIds(Link.class)];
+		this.resourceLinkCounts = new int[Math.max(16, network.getLinks().size())];
+
+		// start the block sections at the boundary nodes
+		for (Node node : network.getNodes().values()) {
+			if (isBlockBoundary(node)) {
+				for (Link link : node.getOutLinks().values()) {
+					if (!this.assigned.get(link.getId().index())) {
+						assignBlocks(link);
+					}
+				}
+			}
+		}
+		// links on closed loops without boundary nodes
+		for (Link link : network.getLinks().values()) {
+			if (!this.assigned.get(link.getId().index())) {
+				assignBlocks(link);
+			}
+		}
+		int attributes = writeAttributes(network);
+		log.info("Assigned " + this.resourceCnt + " railsim resources to " + network.getLinks().size() + " links, wrote " + attributes
+				+ " link attributes.");
+	}
+
+	private int writeAttributes(Network network) {
+		String[] resourceIds = new String[this.resourceCnt];
+		int attributes = 0;
+		for (Link link : network.getLinks().values()) {
+			int resource = this.linkResources[link.getId().index()];
+			link.getAttributes().removeAttribute(RailsimUtils.LINK_ATTRIBUTE_CAPACITY);
+			link.getAttributes().removeAttribute(RailsimUtils.LINK_ATTRIBUTE_RESOURCE_ID);
+			if (!this.lean || this.trainCapacity != DEFAULT_TRAIN_CAPACITY) {
+				RailsimUtils.setTrainCapacity(link, this.trainCapacity);
+				attributes++;
+			}
+			if (!this.lean || this.resourceLinkCounts[resource] > 1) {
+				if (resourceIds[resource] == null) {
+					// one string per resource, shared by its links
+					resourceIds[resource] = "resource_" + resource;
+				}
+				RailsimUtils.setResourceId(link, resourceIds[resource]);
+				attributes++;
+			}
+		}
+		return attributes;
+	}
+
+	/**
+	 * Follows the track from the link until the next block boundary and assigns the block sections on the way.
+	 */
+	private void assignBlocks(Link first) {
+		// the resources are only created with their first link, so a block section ending after a stop link does not leave an empty one
+		int resourceId = -1;
+		double length = 0.;
+		Link link = first;
+		while (link != null && !this.assigned.get(link.getId().index())) {
+			boolean isStopLink = this.stopLinks.contains(link.getId());
+			if (isStopLink || (length > 0. && length + link.getLength() > this.blockLength)) {
+				resourceId = -1;
+				length = 0.;
+			}
+			if (resourceId < 0) {
+				resourceId = nextResourceId();
+			}
+			assign(link, resourceId);
+			length += link.getLength();
+			if (isStopLink) {
+				resourceId = -1;
+				length = 0.;
+			}
+			link = isBlockBoundary(link.getToNode()) ? null : getNextLink(link);
+		}
+	}
+
+	private void assign(Link link, int resourceId) {
+		setResource(link, resourceId);
+		Link inverse = getInverseLink(link);
+		if (inverse != null && !this.assigned.get(inverse.getId().index())) {
+			setResource(inverse, resourceId);
+		}
+	}
+
+	private void setResource(Link link, int resourceId) {
+		this.linkResources[link.getId().index()] = resourceId;
+		this.resourceLinkCounts[resourceId]++;
+		this.assigned.set(link.getId().index());
+	}
+
+	private int nextResourceId() {
+		if (this.resourceCnt == this.resourceLinkCounts.length) {
+			this.resourceLinkCounts = Arrays.copyOf(this.resourceLinkCounts, this.resourceCnt * 2);
+		}
+		return this.resourceCnt++;
+	}
+
+	private static Link getInverseLink(Link link) {
+		for (Link toNodeOutLink : link.getToNode().getOutLinks().values()) {
+			if (toNodeOutLink.getToNode() == link.getFromNode() && toNodeOutLink != link) {
+				return toNodeOutLink;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the out link of the link's to node which does not lead back to the link's from node.
+	 */
+	private static Link getNextLink(Link link) {
+		for (Link outLink : link.getToNode().getOutLinks().values()) {
+			if (outLink.getToNode() != link.getFromNode()) {
+				return outLink;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isBlockBoundary(Node node) {
+		if (Boolean.TRUE.equals(node.getAttributes().getAttribute(RunSwitzerlandRailway.NODE_ATTRIBUTE_SIGNAL))) {
+			return true;
+		}
+		Set<Node> neighbours = new HashSet<>(4);
+		for (Link inLink : node.getInLinks().values()) {
+			neighbours.add(inLink.getFromNode());
+		}
+		for (Link outLink : node.getOutLinks().values()) {
+			neighbours.add(outLink.getToNode());
+		}
+		return neighbours.size() != 2 || neighbours.contains(node);
+	}
+
+}
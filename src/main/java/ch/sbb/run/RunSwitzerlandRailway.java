@@ -19,29 +19,54 @@
 
 package ch.sbb.run;
 
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
 import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.population.io.PopulationReader;
 import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.collections.CollectionUtils;
+import org.matsim.core.utils.misc.Time;
 import org.matsim.pt.transitSchedule.api.Departure;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
+import org.matsim.utils.objectattributes.attributable.Attributes;
 import org.matsim.vehicles.Vehicle;
 import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.Vehicles;
 
+import ch.sbb.analysis.RailsimAnalysisModule;
+import ch.sbb.events.BinaryEventsModule;
 import ch.sbb.matsim.contrib.railsim.RailsimModule;
-import ch.sbb.matsim.contrib.railsim.RailsimUtils;
 import ch.sbb.matsim.contrib.railsim.qsimengine.RailsimQSimModule;
+import ch.sbb.prepare.AreaFilter;
 
 public final class RunSwitzerlandRailway {
     private static final Logger log = LogManager.getLogger(RunSwitzerlandRailway.class);
 
+	private static final String OSM_ATTRIBUTE_PREFIX = "osm:";
+
+	// set to true at the network nodes of osm signals, block sections end there, see RailsimResourceBuilder
+	public static final String NODE_ATTRIBUTE_SIGNAL = "signal";
+
 	public static void main(String[] args) {
 
 		String configFilename;
@@ -51,124 +76,221 @@ public final class RunSwitzerlandRailway {
 			configFilename = "matsim_input/config.xml";
 		}
 
-		Config config = ConfigUtils.loadConfig(configFilename);
+		Config config = ConfigUtils.loadConfig(configFilename, new SwitzerlandRailwayConfigGroup());
 		config.controller().setOverwriteFileSetting(OutputDirectoryHierarchy.OverwriteFileSetting.deleteDirectoryIfExists);		
 		
-		Scenario scenario = ScenarioUtils.loadScenario(config);
+		Scenario scenario = loadScenario(config);
+		Controler controler = createControler(scenario);
+		controler.run();
 		
-		adjustVehicles(scenario);
-		adjustNetwork(scenario);
-			
+		log.info("Done.");
+	}
+
+	/**
+	 * Loads the scenario either from the snapshot or from the xml files and applies the railsim adjustments.
+	 */
+	public static Scenario loadScenario(Config config) {
+		SwitzerlandRailwayConfigGroup railwayConfig = ConfigUtils.addOrGetModule(config, SwitzerlandRailwayConfigGroup.class);
+		HeapFootprintReport heapReport = railwayConfig.heapFootprintReport ? new HeapFootprintReport() : null;
+
+		Scenario scenario;
+		long start = System.nanoTime();
+		if (!isEmpty(railwayConfig.snapshotFile)) {
+			// the snapshot already contains the adjusted network and vehicles
+			scenario = ScenarioUtils.createScenario(config);
+			ScenarioSnapshot.read(getInputPath(config, railwayConfig.snapshotFile), scenario);
+			RailsimPerformanceMonitor.addLoadingPhase(scenario, "snapshotLoading", start);
+			if (railwayConfig.leanLoading) {
+				stripOsmAttributes(scenario.getNetwork());
+			}
+			measure(heapReport, "snapshot");
+		} else {
+			if (railwayConfig.leanLoading) {
+				scenario = loadScenarioLean(config, heapReport);
+			} else {
+				scenario = ScenarioUtils.loadScenario(config);
+				measure(heapReport, "scenario");
+			}
+			RailsimPerformanceMonitor.addLoadingPhase(scenario, "scenarioLoading", start);
+			start = System.nanoTime();
+			adjustVehicles(scenario.getTransitSchedule(), scenario.getTransitVehicles(), loadVehicleTypes(config));
+			RailsimPerformanceMonitor.addLoadingPhase(scenario, "vehicleAdjustment", start);
+			measure(heapReport, "transit vehicles");
+			start = System.nanoTime();
+			adjustNetwork(scenario.getNetwork(), scenario.getTransitSchedule(), railwayConfig);
+			RailsimPerformanceMonitor.addLoadingPhase(scenario, "networkAdjustment", start);
+			measure(heapReport, "railsim link attributes");
+		}
+		start = System.nanoTime();
+		if (reduceScenario(scenario, railwayConfig)) {
+			RailsimPerformanceMonitor.addLoadingPhase(scenario, "scenarioReduction", start);
+			measure(heapReport, "scenario reduction");
+		}
+		if (heapReport != null) {
+			heapReport.log();
+		}
+		return scenario;
+	}
+
+	/**
+	 * Reads the containers one after the other, so the osm attributes are removed before the schedule is read. The
+	 * transit vehicles file is not read, since adjustVehicles replaces the vehicles anyway. The input coordinate systems
+	 * are honoured as by ScenarioUtils.loadScenario, inputs which are not needed by this scenario (facilities,
+	 * households, lanes and vehicles) are rejected instead of being ignored.
+	 */
+	private static Scenario loadScenarioLean(Config config, HeapFootprintReport heapReport) {
+		List<String> unsupportedInputs = new ArrayList<>();
+		if (config.facilities().getInputFile() != null) {
+			unsupportedInputs.add("facilities");
+		}
+		if (config.households().getInputFile() != null) {
+			unsupportedInputs.add("households");
+		}
+		if (config.network().getLaneDefinitionsFile() != null) {
+			unsupportedInputs.add("lanes");
+		}
+		if (config.vehicles().getVehiclesFile() != null) {
+			unsupportedInputs.add("vehicles");
+		}
+		if (!unsupportedInputs.isEmpty()) {
+			throw new IllegalArgumentException("leanLoading does not read the input files of " + unsupportedInputs + ", set leanLoading to false.");
+		}
+
+		String targetCRS = config.global().getCoordinateSystem();
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		new MatsimNetworkReader(config.network().getInputCRS(), targetCRS, scenario.getNetwork())
+				.readURL(config.network().getInputFileURL(config.getContext()));
+		stripOsmAttributes(scenario.getNetwork());
+		measure(heapReport, "network");
+		new TransitScheduleReader(config.transit().getInputScheduleCRS(), targetCRS, scenario)
+				.readURL(config.transit().getTransitScheduleFileURL(config.getContext()));
+		measure(heapReport, "transit schedule");
+		if (config.plans().getInputFile() != null) {
+			new PopulationReader(config.plans().getInputCRS(), targetCRS, scenario).readURL(config.plans().getInputFileURL(config.getContext()));
+			measure(heapReport, "population");
+		}
+		return scenario;
+	}
+
+	private static void measure(HeapFootprintReport heapReport, String container) {
+		if (heapReport != null) {
+			heapReport.measure(container);
+		}
+	}
+
+	/**
+	 * Removes the attributes of the osm converter from the links and nodes, they are not used by the simulation.
+	 */
+	public static void stripOsmAttributes(Network network) {
+		int removed = 0;
+		for (Link link : network.getLinks().values()) {
+			removed += removeAttributes(link.getAttributes(), OSM_ATTRIBUTE_PREFIX);
+		}
+		for (Node node : network.getNodes().values()) {
+			removed += removeAttributes(node.getAttributes(), OSM_ATTRIBUTE_PREFIX);
+		}
+		log.info("Removed " + removed + " osm attributes from the network.");
+	}
+
+	private static int removeAttributes(Attributes attributes, String prefix) {
+		if (attributes.isEmpty()) {
+			return 0;
+		}
+		int removed = 0;
+		for (String key : new ArrayList<>(attributes.getAsMap().keySet())) {
+			if (key.startsWith(prefix)) {
+				attributes.removeAttribute(key);
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	private static boolean reduceScenario(Scenario scenario, SwitzerlandRailwayConfigGroup railwayConfig) {
+		if (isEmpty(railwayConfig.areaShapeFile) && isEmpty(railwayConfig.timeWindowStart) && isEmpty(railwayConfig.timeWindowEnd)) {
+			return false;
+		}
+		AreaFilter area = null;
+		if (!isEmpty(railwayConfig.areaShapeFile)) {
+			try {
+				area = AreaFilter.fromShapeFile(getInputPath(scenario.getConfig(), railwayConfig.areaShapeFile).toString());
+			} catch (MalformedURLException e) {
+				throw new IllegalArgumentException("Invalid area shape file " + railwayConfig.areaShapeFile, e);
+			}
+		}
+		double startTime = isEmpty(railwayConfig.timeWindowStart) ? Double.NEGATIVE_INFINITY : Time.parseTime(railwayConfig.timeWindowStart);
+		double endTime = isEmpty(railwayConfig.timeWindowEnd) ? Double.POSITIVE_INFINITY : Time.parseTime(railwayConfig.timeWindowEnd);
+		SubScenarioBuilder builder = new SubScenarioBuilder(area, startTime, endTime);
+		if (!isEmpty(railwayConfig.entryTimesEventsFile)) {
+			builder.setEntryTimesEventsFile(getInputPath(scenario.getConfig(), railwayConfig.entryTimesEventsFile).toString());
+		}
+		builder.run(scenario);
+		return true;
+	}
+
+	private static boolean isEmpty(String s) {
+		return s == null || s.isEmpty();
+	}
+
+	public static Controler createControler(Scenario scenario) {
 		Controler controler = new Controler(scenario);
 
 		controler.addOverridingModule(new RailsimModule());
 
+		// optional instrumentation and outputs of the switzerlandRailway config module
+		SwitzerlandRailwayConfigGroup railwayConfig = ConfigUtils.addOrGetModule(scenario.getConfig(), SwitzerlandRailwayConfigGroup.class);
+		if (railwayConfig.performanceSampleInterval > 0) {
+			controler.addOverridingModule(new RailsimPerformanceModule(scenario));
+		}
+		if (railwayConfig.railsimAnalysis) {
+			controler.addOverridingModule(new RailsimAnalysisModule());
+		}
+		if (railwayConfig.binaryEvents) {
+			controler.addOverridingModule(new BinaryEventsModule(isEmpty(railwayConfig.binaryEventsTypes) ? Set.of()
+					: CollectionUtils.stringToSet(railwayConfig.binaryEventsTypes)));
+		}
+
 		// if you have other extensions that provide QSim components, call their configure-method here
 		controler.configureQSimComponents(components -> new RailsimQSimModule().configure(components));
 
-		controler.run();
-		
-		log.info("Done.");
+		return controler;
 	}
 
-	private static void adjustNetwork(Scenario scenario) {
-		// set some network attributes which are used by the railsim engine
-		int resourceCnt = 0;
-		for (Link link : scenario.getNetwork().getLinks().values()) {
-			RailsimUtils.setTrainCapacity(link, 1);
-			
-			RailsimUtils.setResourceId(link, "resource_" + resourceCnt);
-
-			// find inverse links
-			for (Link toNodeOutLink : link.getToNode().getOutLinks().values()) {
-				if (toNodeOutLink.getToNode() == link.getFromNode()) {
-					// inverse link
-					RailsimUtils.setResourceId(toNodeOutLink, "resource_" + resourceCnt);
-				}
-			}
-			resourceCnt++;
+	private static Path getInputPath(Config config, String file) {
+		try {
+			return Path.of(ConfigGroup.getInputFileURL(config.getContext(), file).toURI());
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid input file " + file, e);
 		}
 	}
 
-	private static void adjustVehicles(Scenario scenario) {
-		// nicer vehicle names
-		scenario.getTransitVehicles().getVehicles().values().forEach(vehicle -> {
-			scenario.getTransitVehicles().removeVehicle(vehicle.getId());
-		});
-		scenario.getTransitVehicles().getVehicleTypes().values().forEach(vehicleType -> {
-			scenario.getTransitVehicles().removeVehicleType(vehicleType.getId());
-		});
-		
-		VehicleType vehTypeIC = scenario.getTransitVehicles().getFactory().createVehicleType(Id.create("IC", VehicleType.class));
-		vehTypeIC.getCapacity().setStandingRoom(1000);
-		vehTypeIC.setMaximumVelocity(100.);
-		vehTypeIC.setLength(250.);
-		vehTypeIC.setNetworkMode("rail");
-		scenario.getTransitVehicles().addVehicleType(vehTypeIC);
-		
-		VehicleType vehTypeEC = scenario.getTransitVehicles().getFactory().createVehicleType(Id.create("EC", VehicleType.class));
-		vehTypeEC.getCapacity().setStandingRoom(1000);
-		vehTypeEC.setMaximumVelocity(100.);
-		vehTypeEC.setLength(250.);
-		vehTypeEC.setNetworkMode("rail");
-		scenario.getTransitVehicles().addVehicleType(vehTypeEC);
-		
-		VehicleType vehTypeIR = scenario.getTransitVehicles().getFactory().createVehicleType(Id.create("IR", VehicleType.class));
-		vehTypeIR.getCapacity().setStandingRoom(1000);
-		vehTypeIR.setMaximumVelocity(100.);
-		vehTypeIR.setLength(250.);
-		vehTypeIR.setNetworkMode("rail");
-		scenario.getTransitVehicles().addVehicleType(vehTypeIR);
-		
-		VehicleType vehTypeRE = scenario.getTransitVehicles().getFactory().createVehicleType(Id.create("RE", VehicleType.class));
-		vehTypeRE.getCapacity().setStandingRoom(1000);
-		vehTypeRE.setMaximumVelocity(27.777);
-		vehTypeRE.setLength(300.);
-		vehTypeRE.setNetworkMode("rail");
-		scenario.getTransitVehicles().addVehicleType(vehTypeRE);
-		
-		VehicleType vehTypeS = scenario.getTransitVehicles().getFactory().createVehicleType(Id.create("S", VehicleType.class));
-		vehTypeS.getCapacity().setStandingRoom(1000);
-		vehTypeS.setMaximumVelocity(27.777);
-		vehTypeS.setLength(150.);
-		vehTypeS.setNetworkMode("rail");
-		scenario.getTransitVehicles().addVehicleType(vehTypeS);
-		
-		VehicleType vehTypeOther = scenario.getTransitVehicles().getFactory().createVehicleType(Id.create("other", VehicleType.class));
-		vehTypeOther.getCapacity().setStandingRoom(1000);
-		vehTypeOther.setMaximumVelocity(27.777);
-		vehTypeOther.setLength(150.);
-		vehTypeOther.setNetworkMode("rail");
-		scenario.getTransitVehicles().addVehicleType(vehTypeOther);
-		
-		for (TransitLine line : scenario.getTransitSchedule().getTransitLines().values()) {
-			for (TransitRoute route : line.getRoutes().values()) {
-				for (Departure dep : route.getDepartures().values()) {
-					
-					VehicleType newVehicleType = null;
-					if (line.getName().startsWith("IC")) {
-						newVehicleType = vehTypeIC;
-
-					} else if (line.getName().startsWith("EC")) {
-						newVehicleType = vehTypeEC;
-
-					} else if (line.getName().startsWith("IR")) {
-						newVehicleType = vehTypeIR;
+	public static void adjustNetwork(Network network, TransitSchedule schedule, SwitzerlandRailwayConfigGroup railwayConfig) {
+		// set the network attributes which are used by the railsim engine, one resource per block section
+		RailsimResourceBuilder resourceBuilder = new RailsimResourceBuilder(railwayConfig.resourceBlockLength, railwayConfig.resourceTrainCapacity,
+				railwayConfig.leanLoading);
+		resourceBuilder.addStopLinks(schedule);
+		resourceBuilder.run(network);
+	}
 
-					} else if (line.getName().startsWith("RE")) {
-						newVehicleType = vehTypeRE;
+	public static VehicleTypeRegistry loadVehicleTypes(Config config) {
+		SwitzerlandRailwayConfigGroup railwayConfig = ConfigUtils.addOrGetModule(config, SwitzerlandRailwayConfigGroup.class);
+		return VehicleTypeRegistry.load(ConfigGroup.getInputFileURL(config.getContext(), railwayConfig.vehicleTypesFile));
+	}
 
-					} else if (line.getName().startsWith("S")) {
-						newVehicleType = vehTypeS;
+	public static void adjustVehicles(TransitSchedule schedule, Vehicles vehicles, VehicleTypeRegistry vehicleTypes) {
+		// replace the vehicles created from the schedule by one vehicle of the line's type per departure, with nicer vehicle names
+		new ArrayList<>(vehicles.getVehicles().keySet()).forEach(vehicles::removeVehicle);
+		new ArrayList<>(vehicles.getVehicleTypes().keySet()).forEach(vehicles::removeVehicleType);
+		vehicleTypes.getTypes().forEach(vehicles::addVehicleType);
 
-					} else {
-						newVehicleType = vehTypeOther;
-					}
-					
-					Id<Vehicle> newVehId = Id.createVehicleId("line_" + line.getName() + "_" + dep.getId());
+		for (TransitLine line : schedule.getTransitLines().values()) {
+			VehicleType vehicleType = vehicleTypes.resolve(line);
+			String vehicleIdPrefix = "line_" + line.getName() + "_";
+			for (TransitRoute route : line.getRoutes().values()) {
+				for (Departure dep : route.getDepartures().values()) {
+					Id<Vehicle> newVehId = Id.createVehicleId(vehicleIdPrefix + dep.getId());
 					dep.setVehicleId(newVehId);
-					Vehicle newVehicle = scenario.getTransitVehicles().getFactory().createVehicle(newVehId, newVehicleType);
-					scenario.getTransitVehicles().addVehicle(newVehicle);	
+					vehicles.addVehicle(vehicles.getFactory().createVehicle(newVehId, vehicleType));
 				}
 			}
 		}
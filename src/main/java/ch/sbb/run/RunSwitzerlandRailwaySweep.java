@@ -0,0 +1,409 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.run;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.api.experimental.events.VehicleArrivesAtFacilityEvent;
+import org.matsim.core.api.experimental.events.handler.VehicleArrivesAtFacilityEventHandler;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.utils.objectattributes.attributable.AttributesUtils;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+import org.matsim.vehicles.Vehicles;
+
+import ch.sbb.prepare.PartitionedScheduleMapper;
+
+/**
+ * Runs several variants of the scenario, concurrently in worker JVMs, the base scenario is only loaded and adjusted
+ * once.
+ *
+ * The variants are read from a semicolon separated file with the variant id in the first column and one column per
+ * changed parameter, empty cells keep the base value:
+ * <ul>
+ * <li>{@code resourceTrainCapacity}, {@code resourceBlockLength}: parameters of the switzerlandRailway config module, a
+ * variant which changes them gets its own full copy of the network with rebuilt railsim resources. The railsim engine
+ * reads the resources from the link attributes, so the links cannot be shared with an overlay of changed
+ * attributes.</li>
+ * <li>{@code <vehicleTypeId>.length}, {@code <vehicleTypeId>.width}, {@code <vehicleTypeId>.maximumVelocity},
+ * {@code <vehicleTypeId>.<attribute>}: properties or (numeric) attributes of a vehicle type, e.g.
+ * {@code IC.railsimAcceleration}. A variant which changes them gets its own copy of the vehicle types and vehicles.</li>
+ * </ul>
+ * Everything else, in particular the transit schedule, is shared with the base scenario. Each variant writes to its own
+ * sub directory of the output directory, the results of all variants are summarized in {@value #SUMMARY_FILE}.
+ *
+ * MATSim keeps global state per run, e.g. the seed of MatsimRandom, the output directory logging and the
+ * MemoryObserver, so concurrent controlers in one JVM would affect each other's results and logs. The variants
+ * therefore run in worker JVMs, at most the given number at the same time (by default the number of cores divided by
+ * the global number of threads of the config). The base scenario is loaded once and written as scenario snapshot
+ * {@value #BASE_SNAPSHOT_FILE}, unless the config already uses a snapshot, and each worker reads the snapshot and
+ * applies the changes of its variant. The workers are started with the JVM arguments of the sweep, i.e. each worker
+ * gets the heap given with -Xmx. With one worker, the variants run one after the other in the JVM of the sweep.
+ */
+public final class RunSwitzerlandRailwaySweep {
+	private static final Logger log = LogManager.getLogger(RunSwitzerlandRailwaySweep.class);
+
+	private static final String SUMMARY_FILE = "sweep_summary.csv";
+	private static final String BASE_SNAPSHOT_FILE = "sweep_base.snapshot";
+	private static final String SEPARATOR = ";";
+	private static final String WORKER_ARG = "--worker";
+
+	public static void main(String[] args) {
+		if (args.length > 0 && WORKER_ARG.equals(args[0])) {
+			runWorker(args);
+			return;
+		}
+		if (args.length < 2) {
+			throw new IllegalArgumentException("Usage: RunSwitzerlandRailwaySweep <config file> <variants file> [<workers>]");
+		}
+		String configFilename = args[0];
+		List<Variant> variants = readVariants(args[1]);
+
+		Config baseConfig = ConfigUtils.loadConfig(configFilename, new SwitzerlandRailwayConfigGroup());
+		SwitzerlandRailwayConfigGroup baseRailwayConfig = ConfigUtils.addOrGetModule(baseConfig, SwitzerlandRailwayConfigGroup.class);
+		String outputDirectory = baseConfig.controller().getOutputDirectory();
+		int workers = args.length > 2 ? Integer.parseInt(args[2])
+				: Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, baseConfig.global().getNumberOfThreads()));
+		workers = Math.min(workers, variants.size());
+
+		List<VariantResult> results = new ArrayList<>();
+		if (workers <= 1) {
+			log.info("Running " + variants.size() + " variants one after the other.");
+			Scenario baseScenario = RunSwitzerlandRailway.loadScenario(baseConfig);
+			for (Variant variant : variants) {
+				results.add(runVariant(configFilename, outputDirectory, baseScenario, baseRailwayConfig, variant));
+			}
+		} else {
+			try {
+				Files.createDirectories(Path.of(outputDirectory));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			String snapshotFile = writeBaseSnapshot(baseConfig, outputDirectory);
+			log.info("Running " + variants.size() + " variants in " + workers + " worker JVMs.");
+			ExecutorService executor = Executors.newFixedThreadPool(workers);
+			try {
+				List<Future<VariantResult>> futures = new ArrayList<>();
+				for (Variant variant : variants) {
+					futures.add(executor.submit(() -> runWorkerProcess(configFilename, args[1], outputDirectory, snapshotFile, variant)));
+				}
+				for (Future<VariantResult> future : futures) {
+					results.add(future.get());
+				}
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		writeSummary(outputDirectory + "/" + SUMMARY_FILE, results);
+
+		log.info("Done.");
+	}
+
+	/**
+	 * Writes the base scenario as snapshot for the workers, without the area and time window reduction, which each
+	 * worker applies itself while loading the snapshot. A snapshot of the config is used as it is.
+	 */
+	private static String writeBaseSnapshot(Config baseConfig, String outputDirectory) {
+		SwitzerlandRailwayConfigGroup railwayConfig = ConfigUtils.addOrGetModule(baseConfig, SwitzerlandRailwayConfigGroup.class);
+		if (railwayConfig.snapshotFile != null && !railwayConfig.snapshotFile.isEmpty()) {
+			return null;
+		}
+		railwayConfig.areaShapeFile = null;
+		railwayConfig.timeWindowStart = null;
+		railwayConfig.timeWindowEnd = null;
+		railwayConfig.entryTimesEventsFile = null;
+		Scenario baseScenario = RunSwitzerlandRailway.loadScenario(baseConfig);
+		Path snapshotFile = Path.of(outputDirectory, BASE_SNAPSHOT_FILE).toAbsolutePath();
+		ScenarioSnapshot.write(snapshotFile.toString(), baseConfig, baseScenario.getNetwork(), baseScenario.getTransitSchedule(),
+				baseScenario.getTransitVehicles());
+		return snapshotFile.toString();
+	}
+
+	/**
+	 * Runs the variant in a worker JVM with the class path and JVM arguments of this JVM, the output of the worker is
+	 * written to variant_[id].log in the output directory.
+	 */
+	private static VariantResult runWorkerProcess(String configFilename, String variantsFile, String outputDirectory, String snapshotFile,
+			Variant variant) throws IOException, InterruptedException {
+		Path resultFile = Path.of(outputDirectory, "variant_" + variant.id + "_result.csv");
+		Files.deleteIfExists(resultFile);
+		List<String> command = new ArrayList<>();
+		command.add(ProcessHandle.current().info().command().orElse("java"));
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(RunSwitzerlandRailwaySweep.class.getName());
+		command.addAll(List.of(WORKER_ARG, configFilename, variantsFile, variant.id, resultFile.toString(), snapshotFile == null ? "" : snapshotFile));
+
+		long start = System.nanoTime();
+		Process process = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(Path.of(outputDirectory, "variant_" + variant.id + ".log").toFile())
+				.start();
+		int exitCode = process.waitFor();
+		if (exitCode != 0 || !Files.exists(resultFile)) {
+			log.error("Worker of variant " + variant.id + " failed with exit code " + exitCode + ".");
+			return new VariantResult(variant.id, "failed", (System.nanoTime() - start) / 1e9, false, false, 0, Double.NaN, Double.NaN);
+		}
+		log.info("Variant " + variant.id + " done.");
+		return readResult(resultFile);
+	}
+
+	/**
+	 * Entry point of a worker JVM: loads the base scenario from the snapshot and runs one variant.
+	 */
+	private static void runWorker(String[] args) {
+		String configFilename = args[1];
+		String variantId = args[3];
+		Variant variant = readVariants(args[2]).stream().filter(v -> v.id.equals(variantId)).findFirst()
+				.orElseThrow(() -> new IllegalArgumentException("Unknown variant " + variantId));
+
+		Config baseConfig = ConfigUtils.loadConfig(configFilename, new SwitzerlandRailwayConfigGroup());
+		SwitzerlandRailwayConfigGroup baseRailwayConfig = ConfigUtils.addOrGetModule(baseConfig, SwitzerlandRailwayConfigGroup.class);
+		if (!args[5].isEmpty()) {
+			baseRailwayConfig.snapshotFile = args[5];
+		}
+		Scenario baseScenario = RunSwitzerlandRailway.loadScenario(baseConfig);
+		VariantResult result = runVariant(configFilename, baseConfig.controller().getOutputDirectory(), baseScenario, baseRailwayConfig, variant);
+		writeSummary(args[4], List.of(result));
+	}
+
+	private static VariantResult runVariant(String configFilename, String outputDirectory, Scenario baseScenario,
+			SwitzerlandRailwayConfigGroup baseRailwayConfig, Variant variant) {
+		Config config = ConfigUtils.loadConfig(configFilename, new SwitzerlandRailwayConfigGroup());
+		config.controller().setOutputDirectory(outputDirectory + "/variant_" + variant.id);
+		config.controller().setOverwriteFileSetting(OutputDirectoryHierarchy.OverwriteFileSetting.deleteDirectoryIfExists);
+		SwitzerlandRailwayConfigGroup railwayConfig = ConfigUtils.addOrGetModule(config, SwitzerlandRailwayConfigGroup.class);
+
+		// the time window may be set while loading the base scenario
+		Config baseConfig = baseScenario.getConfig();
+		baseConfig.qsim().getStartTime().ifDefined(config.qsim()::setStartTime);
+		baseConfig.qsim().getEndTime().ifDefined(config.qsim()::setEndTime);
+		config.qsim().setSimStarttimeInterpretation(baseConfig.qsim().getSimStarttimeInterpretation());
+
+		Map<String, String> typeChanges = new LinkedHashMap<>();
+		for (Map.Entry<String, String> e : variant.values.entrySet()) {
+			switch (e.getKey()) {
+				case "resourceTrainCapacity" -> railwayConfig.resourceTrainCapacity = Integer.parseInt(e.getValue());
+				case "resourceBlockLength" -> railwayConfig.resourceBlockLength = Double.parseDouble(e.getValue());
+				default -> typeChanges.put(e.getKey(), e.getValue());
+			}
+		}
+
+		// copy on write: only the containers which are changed by the variant are copied, the network as a whole
+		MutableScenario scenario = ScenarioUtils.createMutableScenario(config);
+		scenario.setTransitSchedule(baseScenario.getTransitSchedule());
+
+		boolean networkCopied = railwayConfig.resourceTrainCapacity != baseRailwayConfig.resourceTrainCapacity
+				|| railwayConfig.resourceBlockLength != baseRailwayConfig.resourceBlockLength;
+		if (networkCopied) {
+			Network network = PartitionedScheduleMapper.copyNetwork(baseScenario.getNetwork());
+			RunSwitzerlandRailway.adjustNetwork(network, baseScenario.getTransitSchedule(), railwayConfig);
+			scenario.setNetwork(network);
+		} else {
+			scenario.setNetwork(baseScenario.getNetwork());
+		}
+
+		boolean vehiclesCopied = !typeChanges.isEmpty();
+		scenario.setTransitVehicles(vehiclesCopied ? copyVehicles(baseScenario.getTransitVehicles(), typeChanges) : baseScenario.getTransitVehicles());
+
+		StopDelayHandler delays = new StopDelayHandler();
+		Controler controler = RunSwitzerlandRailway.createControler(scenario);
+		controler.addOverridingModule(new AbstractModule() {
+			@Override
+			public void install() {
+				addEventHandlerBinding().toInstance(delays);
+			}
+		});
+
+		long start = System.nanoTime();
+		String status = "ok";
+		try {
+			controler.run();
+		} catch (RuntimeException e) {
+			log.error("Variant " + variant.id + " failed.", e);
+			status = "failed";
+		}
+		double runtime = (System.nanoTime() - start) / 1e9;
+		return new VariantResult(variant.id, status, runtime, networkCopied, vehiclesCopied, delays.arrivals, delays.getMeanDelay(), delays.maxDelay);
+	}
+
+	/**
+	 * Copies the vehicle types with the changes of the variant applied and creates the vehicles with the copied types.
+	 */
+	private static Vehicles copyVehicles(Vehicles baseVehicles, Map<String, String> typeChanges) {
+		Vehicles vehicles = VehicleUtils.createVehiclesContainer();
+		Map<Id<VehicleType>, VehicleType> types = new HashMap<>();
+		for (VehicleType baseType : baseVehicles.getVehicleTypes().values()) {
+			VehicleType type = vehicles.getFactory().createVehicleType(baseType.getId());
+			type.setDescription(baseType.getDescription());
+			type.setNetworkMode(baseType.getNetworkMode());
+			type.setLength(baseType.getLength());
+			type.setWidth(baseType.getWidth());
+			type.setMaximumVelocity(baseType.getMaximumVelocity());
+			type.setPcuEquivalents(baseType.getPcuEquivalents());
+			type.getCapacity().setSeats(baseType.getCapacity().getSeats());
+			type.getCapacity().setStandingRoom(baseType.getCapacity().getStandingRoom());
+			AttributesUtils.copyAttributesFromTo(baseType, type);
+			vehicles.addVehicleType(type);
+			types.put(type.getId(), type);
+		}
+		for (Map.Entry<String, String> e : typeChanges.entrySet()) {
+			int dot = e.getKey().indexOf('.');
+			VehicleType type = dot < 0 ? null : types.get(Id.create(e.getKey().substring(0, dot), VehicleType.class));
+			if (type == null) {
+				throw new IllegalArgumentException("Unknown variant column " + e.getKey());
+			}
+			String property = e.getKey().substring(dot + 1);
+			double value = Double.parseDouble(e.getValue());
+			switch (property) {
+				case "length" -> type.setLength(value);
+				case "width" -> type.setWidth(value);
+				case "maximumVelocity" -> type.setMaximumVelocity(value);
+				default -> type.getAttributes().putAttribute(property, value);
+			}
+		}
+		for (Vehicle baseVehicle : baseVehicles.getVehicles().values()) {
+			vehicles.addVehicle(vehicles.getFactory().createVehicle(baseVehicle.getId(), types.get(baseVehicle.getType().getId())));
+		}
+		return vehicles;
+	}
+
+	private static List<Variant> readVariants(String file) {
+		List<Variant> variants = new ArrayList<>();
+		try (BufferedReader reader = IOUtils.getBufferedReader(file)) {
+			String[] header = reader.readLine().split(SEPARATOR, -1);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank()) {
+					continue;
+				}
+				String[] row = line.split(SEPARATOR, -1);
+				Map<String, String> values = new LinkedHashMap<>();
+				for (int i = 1; i < header.length && i < row.length; i++) {
+					if (!row[i].isBlank()) {
+						values.put(header[i].trim(), row[i].trim());
+					}
+				}
+				variants.add(new Variant(row[0].trim(), values));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return variants;
+	}
+
+	private static void writeSummary(String file, List<VariantResult> results) {
+		try (BufferedWriter writer = IOUtils.getBufferedWriter(file)) {
+			writer.write(String.join(SEPARATOR, "variant", "status", "runtime_s", "networkCopied", "vehiclesCopied",
+					"stopArrivals", "meanArrivalDelay_s", "maxArrivalDelay_s"));
+			writer.newLine();
+			for (VariantResult r : results) {
+				writer.write(String.join(SEPARATOR, r.id, r.status, String.format(Locale.ROOT, "%.1f", r.runtime),
+						Boolean.toString(r.networkCopied), Boolean.toString(r.vehiclesCopied), Long.toString(r.arrivals),
+						String.format(Locale.ROOT, "%.1f", r.meanDelay), String.format(Locale.ROOT, "%.1f", r.maxDelay)));
+				writer.newLine();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		log.info("Wrote sweep summary to " + file);
+	}
+
+	private static VariantResult readResult(Path file) throws IOException {
+		// the header and one line as written by writeSummary
+		String[] row = Files.readAllLines(file).get(1).split(SEPARATOR, -1);
+		return new VariantResult(row[0], row[1], Double.parseDouble(row[2]), Boolean.parseBoolean(row[3]), Boolean.parseBoolean(row[4]),
+				Long.parseLong(row[5]), Double.parseDouble(row[6]), Double.parseDouble(row[7]));
+	}
+
+	private record Variant(String id, Map<String, String> values) {
+	}
+
+	private record VariantResult(String id, String status, double runtime, boolean networkCopied, boolean vehiclesCopied,
+			long arrivals, double meanDelay, double maxDelay) {
+	}
+
+	/**
+	 * Arrival delays at the stop facilities of the last iteration.
+	 */
+	private static final class StopDelayHandler implements VehicleArrivesAtFacilityEventHandler {
+
+		private long arrivals = 0;
+		private double delaySum = 0.;
+		private double maxDelay = 0.;
+
+		@Override
+		public void handleEvent(VehicleArrivesAtFacilityEvent event) {
+			double delay = event.getDelay();
+			if (!Double.isNaN(delay)) {
+				this.arrivals++;
+				this.delaySum += delay;
+				this.maxDelay = Math.max(this.maxDelay, delay);
+			}
+		}
+
+		@Override
+		public void reset(int iteration) {
+			this.arrivals = 0;
+			this.delaySum = 0.;
+			this.maxDelay = 0.;
+		}
+
+		double getMeanDelay() {
+			return this.arrivals == 0 ? 0. : this.delaySum / this.arrivals;
+		}
+	}
+
+}
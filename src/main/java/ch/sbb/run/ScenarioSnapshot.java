@@ -0,0 +1,556 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.run;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopArea;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.Vehicles;
+
+/**
+ * Binary snapshot of the network, the transit schedule and the transit vehicles after the railsim adjustments, so a
+ * run can skip parsing the xml files and rebuilding the railsim attributes.
+ *
+ * The snapshot is written in one pass. Strings are stored once and referenced by their index afterwards, nodes, stop
+ * facilities and vehicle types by their position in the file. The reader maps the file into memory and adds the
+ * objects directly to the containers of the scenario. Attributes of type String, Double, Integer, Long and Boolean are
+ * restored with their type, other attribute values are restored as their string representation, i.e. attributes with
+ * custom converters lose their type. Minimal transfer times are not part of the snapshot, and snapshots larger than
+ * 2 GB are rejected by the reader.
+ *
+ * The header records the railsim parameters the snapshot was adjusted with (resource block length, resource train
+ * capacity, lean loading and the vehicle types file with a fingerprint of its content). The reader fails if they differ
+ * from the config of the run, the snapshot must then be regenerated.
+ */
+public final class ScenarioSnapshot {
+	private static final Logger log = LogManager.getLogger(ScenarioSnapshot.class);
+
+	private static final int MAGIC = 0x4d525353; // MRSS
+	private static final int VERSION = 2;
+
+	private static final int STRING_NULL = -1;
+	private static final int STRING_NEW = -2;
+
+	private static final byte ATTRIBUTE_STRING = 0;
+	private static final byte ATTRIBUTE_DOUBLE = 1;
+	private static final byte ATTRIBUTE_INTEGER = 2;
+	private static final byte ATTRIBUTE_LONG = 3;
+	private static final byte ATTRIBUTE_BOOLEAN = 4;
+
+	private ScenarioSnapshot() {
+	}
+
+	/**
+	 * Writes the snapshot of the containers, which must have been adjusted with the railsim parameters of the config.
+	 */
+	public static void write(String file, Config config, Network network, TransitSchedule schedule, Vehicles vehicles) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Path.of(file)), 1 << 16))) {
+			SnapshotWriter writer = new SnapshotWriter(out);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writer.writeParameters(getParameters(config));
+			Map<Id<Node>, Integer> nodeIndices = writer.writeNetwork(network);
+			Map<Id<TransitStopFacility>, Integer> stopIndices = writer.writeStopFacilities(schedule);
+			writer.writeTransitLines(schedule, stopIndices);
+			writer.writeVehicles(vehicles);
+			log.info("Wrote scenario snapshot " + file + " with " + nodeIndices.size() + " nodes, " + network.getLinks().size()
+					+ " links, " + stopIndices.size() + " stop facilities and " + vehicles.getVehicles().size() + " vehicles.");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Adds the network, the transit schedule and the transit vehicles of the snapshot to the (empty) containers of the
+	 * scenario. Fails if the snapshot was written with other railsim parameters than those of the scenario's config.
+	 */
+	public static void read(Path file, Scenario scenario) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Scenario snapshots larger than 2 GB are not supported: " + file);
+			}
+			SnapshotReader reader = new SnapshotReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			if (reader.buffer.getInt() != MAGIC) {
+				throw new IllegalStateException("Not a scenario snapshot: " + file);
+			}
+			int version = reader.buffer.getInt();
+			if (version != VERSION) {
+				throw new IllegalStateException("Unsupported scenario snapshot version " + version + ": " + file);
+			}
+			Map<String, String> snapshotParameters = reader.readParameters();
+			Map<String, String> configParameters = getParameters(scenario.getConfig());
+			if (!snapshotParameters.equals(configParameters)) {
+				throw new IllegalStateException("The scenario snapshot " + file + " was written with the parameters " + snapshotParameters
+						+ " but the config has " + configParameters + ". Regenerate the snapshot or unset snapshotFile.");
+			}
+			List<Node> nodes = reader.readNetwork(scenario.getNetwork());
+			List<TransitStopFacility> stops = reader.readStopFacilities(scenario.getTransitSchedule());
+			reader.readTransitLines(scenario.getTransitSchedule(), stops);
+			reader.readVehicles(scenario.getTransitVehicles());
+			log.info("Read scenario snapshot " + file + " with " + nodes.size() + " nodes, " + scenario.getNetwork().getLinks().size()
+					+ " links, " + stops.size() + " stop facilities and " + scenario.getTransitVehicles().getVehicles().size() + " vehicles.");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * The parameters which are baked into the network and the vehicles of a snapshot.
+	 */
+	private static Map<String, String> getParameters(Config config) {
+		SwitzerlandRailwayConfigGroup railwayConfig = ConfigUtils.addOrGetModule(config, SwitzerlandRailwayConfigGroup.class);
+		Map<String, String> parameters = new LinkedHashMap<>();
+		parameters.put("resourceBlockLength", Double.toString(railwayConfig.resourceBlockLength));
+		parameters.put("resourceTrainCapacity", Integer.toString(railwayConfig.resourceTrainCapacity));
+		parameters.put("leanLoading", Boolean.toString(railwayConfig.leanLoading));
+		parameters.put("vehicleTypesFile", railwayConfig.vehicleTypesFile);
+		parameters.put("vehicleTypesFingerprint", getFingerprint(ConfigGroup.getInputFileURL(config.getContext(), railwayConfig.vehicleTypesFile)));
+		return parameters;
+	}
+
+	private static String getFingerprint(URL url) {
+		try (InputStream in = url.openStream()) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class SnapshotWriter {
+
+		private final DataOutputStream out;
+		private final Map<String, Integer> strings = new HashMap<>();
+
+		SnapshotWriter(DataOutputStream out) {
+			this.out = out;
+		}
+
+		void writeParameters(Map<String, String> parameters) throws IOException {
+			this.out.writeInt(parameters.size());
+			for (Map.Entry<String, String> entry : parameters.entrySet()) {
+				writeString(entry.getKey());
+				writeString(entry.getValue());
+			}
+		}
+
+		Map<Id<Node>, Integer> writeNetwork(Network network) throws IOException {
+			writeAttributes(network.getAttributes());
+			Map<Id<Node>, Integer> nodeIndices = new HashMap<>();
+			this.out.writeInt(network.getNodes().size());
+			for (Node node : network.getNodes().values()) {
+				nodeIndices.put(node.getId(), nodeIndices.size());
+				writeString(node.getId().toString());
+				this.out.writeDouble(node.getCoord().getX());
+				this.out.writeDouble(node.getCoord().getY());
+				writeAttributes(node.getAttributes());
+			}
+			this.out.writeInt(network.getLinks().size());
+			for (Link link : network.getLinks().values()) {
+				writeString(link.getId().toString());
+				this.out.writeInt(nodeIndices.get(link.getFromNode().getId()));
+				this.out.writeInt(nodeIndices.get(link.getToNode().getId()));
+				this.out.writeDouble(link.getLength());
+				this.out.writeDouble(link.getFreespeed());
+				this.out.writeDouble(link.getCapacity());
+				this.out.writeDouble(link.getNumberOfLanes());
+				this.out.writeInt(link.getAllowedModes().size());
+				for (String mode : link.getAllowedModes()) {
+					writeString(mode);
+				}
+				writeAttributes(link.getAttributes());
+			}
+			return nodeIndices;
+		}
+
+		Map<Id<TransitStopFacility>, Integer> writeStopFacilities(TransitSchedule schedule) throws IOException {
+			writeAttributes(schedule.getAttributes());
+			Map<Id<TransitStopFacility>, Integer> stopIndices = new HashMap<>();
+			this.out.writeInt(schedule.getFacilities().size());
+			for (TransitStopFacility stop : schedule.getFacilities().values()) {
+				stopIndices.put(stop.getId(), stopIndices.size());
+				writeString(stop.getId().toString());
+				this.out.writeDouble(stop.getCoord().getX());
+				this.out.writeDouble(stop.getCoord().getY());
+				this.out.writeBoolean(stop.getIsBlockingLane());
+				writeString(stop.getName());
+				writeString(stop.getLinkId() == null ? null : stop.getLinkId().toString());
+				writeString(stop.getStopAreaId() == null ? null : stop.getStopAreaId().toString());
+				writeAttributes(stop.getAttributes());
+			}
+			return stopIndices;
+		}
+
+		void writeTransitLines(TransitSchedule schedule, Map<Id<TransitStopFacility>, Integer> stopIndices) throws IOException {
+			this.out.writeInt(schedule.getTransitLines().size());
+			for (TransitLine line : schedule.getTransitLines().values()) {
+				writeString(line.getId().toString());
+				writeString(line.getName());
+				writeAttributes(line.getAttributes());
+				this.out.writeInt(line.getRoutes().size());
+				for (TransitRoute route : line.getRoutes().values()) {
+					writeString(route.getId().toString());
+					writeString(route.getTransportMode());
+					writeString(route.getDescription());
+					writeNetworkRoute(route.getRoute());
+					this.out.writeInt(route.getStops().size());
+					for (TransitRouteStop stop : route.getStops()) {
+						this.out.writeInt(stopIndices.get(stop.getStopFacility().getId()));
+						this.out.writeDouble(stop.getArrivalOffset().isDefined() ? stop.getArrivalOffset().seconds() : Double.NaN);
+						this.out.writeDouble(stop.getDepartureOffset().isDefined() ? stop.getDepartureOffset().seconds() : Double.NaN);
+						this.out.writeBoolean(stop.isAwaitDepartureTime());
+					}
+					writeAttributes(route.getAttributes());
+					this.out.writeInt(route.getDepartures().size());
+					for (Departure departure : route.getDepartures().values()) {
+						writeString(departure.getId().toString());
+						this.out.writeDouble(departure.getDepartureTime());
+						writeString(departure.getVehicleId() == null ? null : departure.getVehicleId().toString());
+					}
+				}
+			}
+		}
+
+		private void writeNetworkRoute(NetworkRoute route) throws IOException {
+			if (route == null) {
+				this.out.writeInt(-1);
+				return;
+			}
+			this.out.writeInt(route.getLinkIds().size());
+			writeString(route.getStartLinkId().toString());
+			for (Id<Link> linkId : route.getLinkIds()) {
+				writeString(linkId.toString());
+			}
+			writeString(route.getEndLinkId().toString());
+		}
+
+		void writeVehicles(Vehicles vehicles) throws IOException {
+			Map<Id<VehicleType>, Integer> typeIndices = new HashMap<>();
+			this.out.writeInt(vehicles.getVehicleTypes().size());
+			for (VehicleType type : vehicles.getVehicleTypes().values()) {
+				typeIndices.put(type.getId(), typeIndices.size());
+				writeString(type.getId().toString());
+				writeString(type.getDescription());
+				writeString(type.getNetworkMode());
+				this.out.writeDouble(type.getLength());
+				this.out.writeDouble(type.getWidth());
+				this.out.writeDouble(type.getMaximumVelocity());
+				this.out.writeDouble(type.getPcuEquivalents());
+				this.out.writeInt(type.getCapacity().getSeats() == null ? -1 : type.getCapacity().getSeats());
+				this.out.writeInt(type.getCapacity().getStandingRoom() == null ? -1 : type.getCapacity().getStandingRoom());
+				writeAttributes(type.getAttributes());
+			}
+			this.out.writeInt(vehicles.getVehicles().size());
+			for (Vehicle vehicle : vehicles.getVehicles().values()) {
+				writeString(vehicle.getId().toString());
+				this.out.writeInt(typeIndices.get(vehicle.getType().getId()));
+			}
+		}
+
+		private void writeAttributes(Attributes attributes) throws IOException {
+			this.out.writeInt(attributes.size());
+			for (Map.Entry<String, Object> entry : attributes.getAsMap().entrySet()) {
+				writeString(entry.getKey());
+				Object value = entry.getValue();
+				if (value instanceof Double d) {
+					this.out.writeByte(ATTRIBUTE_DOUBLE);
+					this.out.writeDouble(d);
+				} else if (value instanceof Integer i) {
+					this.out.writeByte(ATTRIBUTE_INTEGER);
+					this.out.writeInt(i);
+				} else if (value instanceof Long l) {
+					this.out.writeByte(ATTRIBUTE_LONG);
+					this.out.writeLong(l);
+				} else if (value instanceof Boolean b) {
+					this.out.writeByte(ATTRIBUTE_BOOLEAN);
+					this.out.writeBoolean(b);
+				} else {
+					this.out.writeByte(ATTRIBUTE_STRING);
+					writeString(String.valueOf(value));
+				}
+			}
+		}
+
+		private void writeString(String s) throws IOException {
+			if (s == null) {
+				this.out.writeInt(STRING_NULL);
+				return;
+			}
+			Integer index = this.strings.get(s);
+			if (index != null) {
+				this.out.writeInt(index);
+				return;
+			}
+			this.strings.put(s, this.strings.size());
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			this.out.writeInt(STRING_NEW);
+			this.out.writeInt(bytes.length);
+			this.out.write(bytes);
+		}
+	}
+
+	private static final class SnapshotReader {
+
+		private final ByteBuffer buffer;
+		private final List<String> strings = new ArrayList<>();
+
+		SnapshotReader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		Map<String, String> readParameters() {
+			int count = this.buffer.getInt();
+			Map<String, String> parameters = new LinkedHashMap<>();
+			for (int i = 0; i < count; i++) {
+				String key = readString();
+				parameters.put(key, readString());
+			}
+			return parameters;
+		}
+
+		List<Node> readNetwork(Network network) {
+			readAttributes(network.getAttributes());
+			int nodeCount = this.buffer.getInt();
+			List<Node> nodes = new ArrayList<>(nodeCount);
+			for (int i = 0; i < nodeCount; i++) {
+				Node node = network.getFactory().createNode(Id.createNodeId(readString()), new Coord(this.buffer.getDouble(), this.buffer.getDouble()));
+				readAttributes(node.getAttributes());
+				network.addNode(node);
+				nodes.add(node);
+			}
+			int linkCount = this.buffer.getInt();
+			for (int i = 0; i < linkCount; i++) {
+				Id<Link> linkId = Id.createLinkId(readString());
+				Link link = network.getFactory().createLink(linkId, nodes.get(this.buffer.getInt()), nodes.get(this.buffer.getInt()));
+				link.setLength(this.buffer.getDouble());
+				link.setFreespeed(this.buffer.getDouble());
+				link.setCapacity(this.buffer.getDouble());
+				link.setNumberOfLanes(this.buffer.getDouble());
+				int modeCount = this.buffer.getInt();
+				Set<String> modes = new HashSet<>(modeCount * 2);
+				for (int m = 0; m < modeCount; m++) {
+					modes.add(readString());
+				}
+				link.setAllowedModes(modes);
+				readAttributes(link.getAttributes());
+				network.addLink(link);
+			}
+			return nodes;
+		}
+
+		List<TransitStopFacility> readStopFacilities(TransitSchedule schedule) {
+			readAttributes(schedule.getAttributes());
+			TransitScheduleFactory factory = schedule.getFactory();
+			int stopCount = this.buffer.getInt();
+			List<TransitStopFacility> stops = new ArrayList<>(stopCount);
+			for (int i = 0; i < stopCount; i++) {
+				Id<TransitStopFacility> stopId = Id.create(readString(), TransitStopFacility.class);
+				Coord coord = new Coord(this.buffer.getDouble(), this.buffer.getDouble());
+				TransitStopFacility stop = factory.createTransitStopFacility(stopId, coord, this.buffer.get() != 0);
+				stop.setName(readString());
+				String linkId = readString();
+				if (linkId != null) {
+					stop.setLinkId(Id.createLinkId(linkId));
+				}
+				String stopAreaId = readString();
+				if (stopAreaId != null) {
+					stop.setStopAreaId(Id.create(stopAreaId, TransitStopArea.class));
+				}
+				readAttributes(stop.getAttributes());
+				schedule.addStopFacility(stop);
+				stops.add(stop);
+			}
+			return stops;
+		}
+
+		void readTransitLines(TransitSchedule schedule, List<TransitStopFacility> stopFacilities) {
+			TransitScheduleFactory factory = schedule.getFactory();
+			int lineCount = this.buffer.getInt();
+			for (int i = 0; i < lineCount; i++) {
+				TransitLine line = factory.createTransitLine(Id.create(readString(), TransitLine.class));
+				line.setName(readString());
+				readAttributes(line.getAttributes());
+				int routeCount = this.buffer.getInt();
+				for (int r = 0; r < routeCount; r++) {
+					Id<TransitRoute> routeId = Id.create(readString(), TransitRoute.class);
+					String mode = readString();
+					String description = readString();
+					NetworkRoute networkRoute = readNetworkRoute();
+					int stopCount = this.buffer.getInt();
+					List<TransitRouteStop> stops = new ArrayList<>(stopCount);
+					for (int s = 0; s < stopCount; s++) {
+						TransitRouteStop.Builder<?> builder = factory.createTransitRouteStopBuilder(stopFacilities.get(this.buffer.getInt()));
+						double arrivalOffset = this.buffer.getDouble();
+						double departureOffset = this.buffer.getDouble();
+						if (!Double.isNaN(arrivalOffset)) {
+							builder.arrivalOffset(arrivalOffset);
+						}
+						if (!Double.isNaN(departureOffset)) {
+							builder.departureOffset(departureOffset);
+						}
+						stops.add(builder.awaitDepartureTime(this.buffer.get() != 0).build());
+					}
+					TransitRoute route = factory.createTransitRoute(routeId, networkRoute, stops, mode);
+					route.setDescription(description);
+					readAttributes(route.getAttributes());
+					int departureCount = this.buffer.getInt();
+					for (int d = 0; d < departureCount; d++) {
+						Departure departure = factory.createDeparture(Id.create(readString(), Departure.class), this.buffer.getDouble());
+						String vehicleId = readString();
+						if (vehicleId != null) {
+							departure.setVehicleId(Id.createVehicleId(vehicleId));
+						}
+						route.addDeparture(departure);
+					}
+					line.addRoute(route);
+				}
+				schedule.addTransitLine(line);
+			}
+		}
+
+		private NetworkRoute readNetworkRoute() {
+			int linkCount = this.buffer.getInt();
+			if (linkCount < 0) {
+				return null;
+			}
+			Id<Link> startLinkId = Id.createLinkId(readString());
+			List<Id<Link>> linkIds = new ArrayList<>(linkCount);
+			for (int i = 0; i < linkCount; i++) {
+				linkIds.add(Id.createLinkId(readString()));
+			}
+			Id<Link> endLinkId = Id.createLinkId(readString());
+			return RouteUtils.createLinkNetworkRouteImpl(startLinkId, linkIds, endLinkId);
+		}
+
+		void readVehicles(Vehicles vehicles) {
+			int typeCount = this.buffer.getInt();
+			List<VehicleType> types = new ArrayList<>(typeCount);
+			for (int i = 0; i < typeCount; i++) {
+				VehicleType type = vehicles.getFactory().createVehicleType(Id.create(readString(), VehicleType.class));
+				type.setDescription(readString());
+				type.setNetworkMode(readString());
+				type.setLength(this.buffer.getDouble());
+				type.setWidth(this.buffer.getDouble());
+				type.setMaximumVelocity(this.buffer.getDouble());
+				type.setPcuEquivalents(this.buffer.getDouble());
+				int seats = this.buffer.getInt();
+				int standingRoom = this.buffer.getInt();
+				if (seats >= 0) {
+					type.getCapacity().setSeats(seats);
+				}
+				if (standingRoom >= 0) {
+					type.getCapacity().setStandingRoom(standingRoom);
+				}
+				readAttributes(type.getAttributes());
+				vehicles.addVehicleType(type);
+				types.add(type);
+			}
+			int vehicleCount = this.buffer.getInt();
+			for (int i = 0; i < vehicleCount; i++) {
+				Id<Vehicle> vehicleId = Id.createVehicleId(readString());
+				vehicles.addVehicle(vehicles.getFactory().createVehicle(vehicleId, types.get(this.buffer.getInt())));
+			}
+		}
+
+		private void readAttributes(Attributes attributes) {
+			int count = this.buffer.getInt();
+			for (int i = 0; i < count; i++) {
+				String name = readString();
+				byte type = this.buffer.get();
+				Object value = switch (type) {
+					case ATTRIBUTE_DOUBLE -> this.buffer.getDouble();
+					case ATTRIBUTE_INTEGER -> this.buffer.getInt();
+					case ATTRIBUTE_LONG -> this.buffer.getLong();
+					case ATTRIBUTE_BOOLEAN -> this.buffer.get() != 0;
+					case ATTRIBUTE_STRING -> readString();
+					default -> throw new IllegalStateException("Unknown attribute type " + type + " of attribute " + name);
+				};
+				attributes.putAttribute(name, value);
+			}
+		}
+
+		private String readString() {
+			int index = this.buffer.getInt();
+			if (index == STRING_NULL) {
+				return null;
+			}
+			if (index != STRING_NEW) {
+				return this.strings.get(index);
+			}
+			byte[] bytes = new byte[this.buffer.getInt()];
+			this.buffer.get(bytes);
+			String s = new String(bytes, StandardCharsets.UTF_8);
+			this.strings.add(s);
+			return s;
+		}
+	}
+
+}
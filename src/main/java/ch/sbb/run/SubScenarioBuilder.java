@@ -0,0 +1,367 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.run;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.groups.QSimConfigGroup;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.pt2matsim.tools.debug.ScheduleCleaner;
+import org.matsim.utils.objectattributes.attributable.AttributesUtils;
+import org.matsim.vehicles.Vehicle;
+
+import ch.sbb.prepare.AreaFilter;
+
+/**
+ * Reduces the scenario to the links inside an area and to the departures within a time window.
+ *
+ * Each transit route is clipped to its longest part inside the area. Where a route enters or leaves the area, a
+ * boundary stop facility is added on the first or last link inside the area. Its offset is interpolated by distance
+ * between the neighbouring stops of the original route. The departure time of a clipped route is the time the train
+ * enters the area at the end of the first link inside the area, either according to the schedule or as simulated in a
+ * previous run if its events are given, i.e. the time the train left that link. Only departures which enter the area
+ * within the time window (or start inside it) are kept, and the QSim runs from the start to the end of the time window.
+ * Departures entering before the start are dropped rather than delayed to the start, so trains which are already
+ * inside the area at the start are missing; the time window should therefore start a while before the period of
+ * interest.
+ */
+public final class SubScenarioBuilder {
+	private static final Logger log = LogManager.getLogger(SubScenarioBuilder.class);
+
+	private static final String BOUNDARY_STOP_PREFIX = "boundary_";
+
+	private final AreaFilter area;
+	private final double startTime;
+	private final double endTime;
+	private String entryTimesEventsFile = null;
+
+	/**
+	 * @param area the area, or null to keep the whole network.
+	 * @param startTime start of the time window [s], negative infinity for no start.
+	 * @param endTime end of the time window [s], positive infinity for no end.
+	 */
+	public SubScenarioBuilder(AreaFilter area, double startTime, double endTime) {
+		this.area = area;
+		this.startTime = startTime;
+		this.endTime = endTime;
+	}
+
+	/**
+	 * Uses the times at which the trains enter the area in a previous run instead of the scheduled times.
+	 */
+	public void setEntryTimesEventsFile(String eventsFile) {
+		this.entryTimesEventsFile = eventsFile;
+	}
+
+	public void run(Scenario scenario) {
+		Network network = scenario.getNetwork();
+		TransitSchedule schedule = scenario.getTransitSchedule();
+
+		BitSet linksInArea;
+		if (this.area == null) {
+			linksInArea = new BitSet();
+			network.getLinks().keySet().forEach(linkId -> linksInArea.set(linkId.index()));
+		} else {
+			linksInArea = this.area.getLinksInArea(network);
+		}
+		Map<Id<Vehicle>, Map<Id<Link>, Double>> entryTimes = this.entryTimesEventsFile == null ? Map.of() : readEntryTimes(linksInArea);
+
+		int clippedRoutes = 0;
+		int removedRoutes = 0;
+		Map<Id<Link>, TransitStopFacility> boundaryStops = new HashMap<>();
+		for (TransitLine line : schedule.getTransitLines().values()) {
+			for (TransitRoute route : new ArrayList<>(line.getRoutes().values())) {
+				TransitRoute clipped = clipRoute(schedule, network, route, linksInArea, boundaryStops, entryTimes);
+				line.removeRoute(route);
+				if (clipped == null) {
+					removedRoutes++;
+				} else {
+					if (clipped.getRoute() != route.getRoute()) {
+						clippedRoutes++;
+					}
+					removeDeparturesOutsideTimeWindow(clipped);
+					if (clipped.getDepartures().isEmpty()) {
+						removedRoutes++;
+					} else {
+						line.addRoute(clipped);
+					}
+				}
+			}
+		}
+		for (TransitLine line : new ArrayList<>(schedule.getTransitLines().values())) {
+			if (line.getRoutes().isEmpty()) {
+				schedule.removeTransitLine(line);
+			}
+		}
+		ScheduleCleaner.removeNotUsedStopFacilities(schedule);
+		removeLinksOutsideArea(network, linksInArea);
+		removeUnusedVehicles(scenario);
+
+		if (Double.isFinite(this.startTime)) {
+			scenario.getConfig().qsim().setStartTime(this.startTime);
+			scenario.getConfig().qsim().setSimStarttimeInterpretation(QSimConfigGroup.StarttimeInterpretation.onlyUseStarttime);
+		}
+		if (Double.isFinite(this.endTime)) {
+			scenario.getConfig().qsim().setEndTime(this.endTime);
+		}
+		log.info("Sub scenario: clipped " + clippedRoutes + " and removed " + removedRoutes + " routes, added " + boundaryStops.size()
+				+ " boundary stops, " + network.getLinks().size() + " links and " + scenario.getTransitVehicles().getVehicles().size() + " vehicles remain.");
+	}
+
+	/**
+	 * @return the route itself if it is completely inside the area, the clipped route or null if no part of the route
+	 *         with at least two stops is inside the area.
+	 */
+	private static TransitRoute clipRoute(TransitSchedule schedule, Network network, TransitRoute route, BitSet linksInArea,
+			Map<Id<Link>, TransitStopFacility> boundaryStops, Map<Id<Vehicle>, Map<Id<Link>, Double>> entryTimes) {
+		NetworkRoute networkRoute = route.getRoute();
+		List<Id<Link>> linkIds = new ArrayList<>(networkRoute.getLinkIds().size() + 2);
+		linkIds.add(networkRoute.getStartLinkId());
+		linkIds.addAll(networkRoute.getLinkIds());
+		linkIds.add(networkRoute.getEndLinkId());
+
+		// longest part of the route inside the area
+		int first = -1;
+		int last = -1;
+		int partStart = -1;
+		for (int i = 0; i < linkIds.size(); i++) {
+			if (linksInArea.get(linkIds.get(i).index())) {
+				if (partStart < 0) {
+					partStart = i;
+				}
+				if (first < 0 || i - partStart > last - first) {
+					first = partStart;
+					last = i;
+				}
+			} else {
+				partStart = -1;
+			}
+		}
+		if (first < 0) {
+			return null;
+		}
+		if (first == 0 && last == linkIds.size() - 1) {
+			return route;
+		}
+
+		// position of the stops along the route, at the end of their link
+		double[] linkEnd = new double[linkIds.size()];
+		double distance = 0.;
+		for (int i = 0; i < linkIds.size(); i++) {
+			distance += network.getLinks().get(linkIds.get(i)).getLength();
+			linkEnd[i] = distance;
+		}
+		List<TransitRouteStop> stops = route.getStops();
+		int[] stopLinkIndex = new int[stops.size()];
+		int linkIndex = 0;
+		for (int s = 0; s < stops.size(); s++) {
+			Id<Link> stopLinkId = stops.get(s).getStopFacility().getLinkId();
+			while (linkIndex < linkIds.size() && !linkIds.get(linkIndex).equals(stopLinkId)) {
+				linkIndex++;
+			}
+			if (linkIndex == linkIds.size()) {
+				log.warn("Stop " + stops.get(s).getStopFacility().getId() + " is not on the network route of transit route " + route.getId() + ", the route is not clipped.");
+				return route;
+			}
+			stopLinkIndex[s] = linkIndex;
+		}
+
+		TransitScheduleFactory factory = schedule.getFactory();
+		List<TransitRouteStop> keptStops = new ArrayList<>();
+		for (int s = 0; s < stops.size(); s++) {
+			if (stopLinkIndex[s] >= first && stopLinkIndex[s] <= last) {
+				keptStops.add(stops.get(s));
+			}
+		}
+		boolean entersArea = keptStops.isEmpty() || stopLinkIndex[stops.indexOf(keptStops.get(0))] != first;
+		boolean leavesArea = keptStops.isEmpty() || stopLinkIndex[stops.indexOf(keptStops.get(keptStops.size() - 1))] != last;
+		double entryOffset = entersArea ? interpolateOffset(stops, stopLinkIndex, linkEnd, first) : getArrivalOffset(keptStops.get(0));
+		double exitOffset = leavesArea ? interpolateOffset(stops, stopLinkIndex, linkEnd, last) : 0.;
+
+		List<TransitRouteStop> clippedStops = new ArrayList<>(keptStops.size() + 2);
+		if (entersArea) {
+			clippedStops.add(createBoundaryStop(schedule, network, linkIds.get(first), boundaryStops, 0.));
+		}
+		for (TransitRouteStop stop : keptStops) {
+			TransitRouteStop clippedStop = factory.createTransitRouteStop(stop.getStopFacility(),
+					getArrivalOffset(stop) - entryOffset, getDepartureOffset(stop) - entryOffset);
+			clippedStop.setAwaitDepartureTime(stop.isAwaitDepartureTime());
+			clippedStops.add(clippedStop);
+		}
+		if (leavesArea) {
+			clippedStops.add(createBoundaryStop(schedule, network, linkIds.get(last), boundaryStops, exitOffset - entryOffset));
+		}
+		if (clippedStops.size() < 2) {
+			return null;
+		}
+
+		NetworkRoute clippedNetworkRoute = RouteUtils.createLinkNetworkRouteImpl(linkIds.get(first),
+				first < last ? linkIds.subList(first + 1, last) : List.of(), linkIds.get(last));
+		TransitRoute clipped = factory.createTransitRoute(route.getId(), clippedNetworkRoute, clippedStops, route.getTransportMode());
+		clipped.setDescription(route.getDescription());
+		AttributesUtils.copyAttributesFromTo(route, clipped);
+		for (Departure departure : route.getDepartures().values()) {
+			double departureTime = departure.getDepartureTime() + entryOffset;
+			if (entersArea && departure.getVehicleId() != null) {
+				// the boundary stop is at the end of the first link, so the train enters the area when it leaves this link
+				Double simulatedEntryTime = entryTimes.getOrDefault(departure.getVehicleId(), Map.of()).get(linkIds.get(first));
+				if (simulatedEntryTime != null) {
+					departureTime = simulatedEntryTime;
+				}
+			}
+			Departure clippedDeparture = factory.createDeparture(departure.getId(), departureTime);
+			clippedDeparture.setVehicleId(departure.getVehicleId());
+			clipped.addDeparture(clippedDeparture);
+		}
+		return clipped;
+	}
+
+	/**
+	 * @return the offset at the end of the link, interpolated by distance between the previous and the next stop.
+	 */
+	private static double interpolateOffset(List<TransitRouteStop> stops, int[] stopLinkIndex, double[] linkEnd, int linkIndex) {
+		int next = 0;
+		while (next < stops.size() && stopLinkIndex[next] < linkIndex) {
+			next++;
+		}
+		if (next == stops.size()) {
+			return getDepartureOffset(stops.get(stops.size() - 1));
+		}
+		if (next == 0 || stopLinkIndex[next] == linkIndex) {
+			return getArrivalOffset(stops.get(next));
+		}
+		int previous = next - 1;
+		double previousPosition = linkEnd[stopLinkIndex[previous]];
+		double nextPosition = linkEnd[stopLinkIndex[next]];
+		double previousOffset = getDepartureOffset(stops.get(previous));
+		double nextOffset = getArrivalOffset(stops.get(next));
+		if (nextPosition <= previousPosition) {
+			return previousOffset;
+		}
+		return previousOffset + (nextOffset - previousOffset) * (linkEnd[linkIndex] - previousPosition) / (nextPosition - previousPosition);
+	}
+
+	private static double getArrivalOffset(TransitRouteStop stop) {
+		return stop.getArrivalOffset().isDefined() ? stop.getArrivalOffset().seconds() : stop.getDepartureOffset().seconds();
+	}
+
+	private static double getDepartureOffset(TransitRouteStop stop) {
+		return stop.getDepartureOffset().isDefined() ? stop.getDepartureOffset().seconds() : stop.getArrivalOffset().seconds();
+	}
+
+	private static TransitRouteStop createBoundaryStop(TransitSchedule schedule, Network network, Id<Link> linkId,
+			Map<Id<Link>, TransitStopFacility> boundaryStops, double offset) {
+		TransitStopFacility facility = boundaryStops.computeIfAbsent(linkId, id -> {
+			Link link = network.getLinks().get(id);
+			TransitStopFacility stop = schedule.getFactory().createTransitStopFacility(
+					Id.create(BOUNDARY_STOP_PREFIX + id, TransitStopFacility.class), link.getToNode().getCoord(), false);
+			stop.setLinkId(id);
+			stop.setName(BOUNDARY_STOP_PREFIX + id);
+			schedule.addStopFacility(stop);
+			return stop;
+		});
+		return schedule.getFactory().createTransitRouteStop(facility, offset, offset);
+	}
+
+	/**
+	 * Removes the departures which enter the area after the end or before the start of the time window. The QSim would
+	 * otherwise delay the latter to its start time.
+	 */
+	private void removeDeparturesOutsideTimeWindow(TransitRoute route) {
+		for (Departure departure : new ArrayList<>(route.getDepartures().values())) {
+			if (departure.getDepartureTime() > this.endTime || departure.getDepartureTime() < this.startTime) {
+				route.removeDeparture(departure);
+			}
+		}
+	}
+
+	private static void removeLinksOutsideArea(Network network, BitSet linksInArea) {
+		for (Link link : new ArrayList<>(network.getLinks().values())) {
+			if (!linksInArea.get(link.getId().index())) {
+				network.removeLink(link.getId());
+			}
+		}
+		for (Node node : new ArrayList<>(network.getNodes().values())) {
+			if (node.getInLinks().isEmpty() && node.getOutLinks().isEmpty()) {
+				network.removeNode(node.getId());
+			}
+		}
+	}
+
+	private static void removeUnusedVehicles(Scenario scenario) {
+		Set<Id<Vehicle>> usedVehicles = new HashSet<>();
+		for (TransitLine line : scenario.getTransitSchedule().getTransitLines().values()) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				for (Departure departure : route.getDepartures().values()) {
+					usedVehicles.add(departure.getVehicleId());
+				}
+			}
+		}
+		for (Id<Vehicle> vehicleId : new ArrayList<>(scenario.getTransitVehicles().getVehicles().keySet())) {
+			if (!usedVehicles.contains(vehicleId)) {
+				scenario.getTransitVehicles().removeVehicle(vehicleId);
+			}
+		}
+	}
+
+	/**
+	 * @return the first time each vehicle left each link inside the area in the events file.
+	 */
+	private Map<Id<Vehicle>, Map<Id<Link>, Double>> readEntryTimes(BitSet linksInArea) {
+		Map<Id<Vehicle>, Map<Id<Link>, Double>> entryTimes = new HashMap<>();
+		EventsManager events = EventsUtils.createEventsManager();
+		events.addHandler((LinkLeaveEventHandler) event -> {
+			if (linksInArea.get(event.getLinkId().index())) {
+				entryTimes.computeIfAbsent(event.getVehicleId(), id -> new HashMap<>()).putIfAbsent(event.getLinkId(), event.getTime());
+			}
+		});
+		events.initProcessing();
+		new MatsimEventsReader(events).readFile(this.entryTimesEventsFile);
+		events.finishProcessing();
+		log.info("Read the entry times of " + entryTimes.size() + " vehicles from " + this.entryTimesEventsFile);
+		return entryTimes;
+	}
+
+}
@@ -0,0 +1,95 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.run;
+
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+/**
+ * Parameters of the Switzerland railway scenario which are not covered by the MATSim and railsim config groups.
+ */
+public final class SwitzerlandRailwayConfigGroup extends ReflectiveConfigGroup {
+
+	public static final String GROUP_NAME = "switzerlandRailway";
+
+	@Parameter
+	@Comment("Maximum length [m] of a block section which is reserved as one railsim resource. Block sections end at switches, signals and stops.")
+	public double resourceBlockLength = 2000.;
+
+	@Parameter
+	@Comment("Number of trains which may use a railsim resource at the same time.")
+	public int resourceTrainCapacity = 1;
+
+	@Parameter
+	@Comment("MATSim vehicles file with the vehicle types of the transit lines, see VehicleTypeRegistry.")
+	public String vehicleTypesFile = "vehicleTypes.xml";
+
+	@Parameter
+	@Comment("Optional binary scenario snapshot written by GenerateRailsimInput. If set, the network, transit schedule and transit vehicles are read from the snapshot instead of the xml files.")
+	public String snapshotFile = null;
+
+	@Parameter
+	@Comment("Optional shape file of an area, only the links inside the area are simulated and trains enter and leave the area at boundary stops.")
+	public String areaShapeFile = null;
+
+	@Parameter
+	@Comment("Optional start of the simulated time window, e.g. 06:00:00. Only departures which enter the area during the time window are simulated, trains which are already inside the area at the start are dropped.")
+	public String timeWindowStart = null;
+
+	@Parameter
+	@Comment("Optional end of the simulated time window, e.g. 09:00:00.")
+	public String timeWindowEnd = null;
+
+	@Parameter
+	@Comment("Optional events file of a previous run of the whole area, trains then enter the area at their simulated instead of their scheduled times.")
+	public String entryTimesEventsFile = null;
+
+	@Parameter
+	@Comment("Interval [simulated s] of the performance time series written by RailsimPerformanceModule, 0 to disable the instrumentation.")
+	public double performanceSampleInterval = 0.;
+
+	@Parameter
+	@Comment("Local port of the HTTP endpoint /metrics with the latest performance sample, 0 to disable the endpoint.")
+	public int performanceMetricsPort = 0;
+
+	@Parameter
+	@Comment("If true, the railsim events of the last iteration are analyzed during the simulation, see RailsimEventsAnalysis.")
+	public boolean railsimAnalysis = false;
+
+	@Parameter
+	@Comment("If true, the events of the last iteration are also written into a compact binary file, see BinaryEventsWriter. To skip the xml events, set writeEventsInterval of the controller to 0.")
+	public boolean binaryEvents = false;
+
+	@Parameter
+	@Comment("Optional comma separated event types which are written into the binary events file, e.g. railsimTrainStateEvent,VehicleArrivesAtFacility. All events if empty.")
+	public String binaryEventsTypes = null;
+
+	@Parameter
+	@Comment("If true, the scenario is loaded with less heap: the osm attributes of the network are removed, the transit vehicles file is skipped since the vehicles are recreated from the schedule, and the railsim attributes are only written where they differ from the railsim defaults.")
+	public boolean leanLoading = false;
+
+	@Parameter
+	@Comment("If true, the heap footprint of the network, transit schedule and transit vehicles is logged while loading. Requires full garbage collections.")
+	public boolean heapFootprintReport = false;
+
+	public SwitzerlandRailwayConfigGroup() {
+		super(GROUP_NAME);
+	}
+
+}
@@ -0,0 +1,138 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2024 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package ch.sbb.run;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.vehicles.MatsimVehicleReader;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+import org.matsim.vehicles.Vehicles;
+
+import ch.sbb.prepare.GtfsRailScheduleReader;
+
+/**
+ * Vehicle types of the transit lines, read from a MATSim vehicles file.
+ *
+ * A vehicle type is assigned to the lines whose name starts with one of the comma separated prefixes of the type
+ * attribute {@value #TYPE_ATTRIBUTE_LINE_PREFIXES}, the longest matching prefix wins. Lines without a matching prefix
+ * get the type with their GTFS route type in the type attribute {@value #TYPE_ATTRIBUTE_GTFS_ROUTE_TYPES}, all other
+ * lines the type with the attribute {@value #TYPE_ATTRIBUTE_DEFAULT} set to true.
+ */
+public final class VehicleTypeRegistry {
+	private static final Logger log = LogManager.getLogger(VehicleTypeRegistry.class);
+
+	public static final String TYPE_ATTRIBUTE_LINE_PREFIXES = "linePrefixes";
+	public static final String TYPE_ATTRIBUTE_GTFS_ROUTE_TYPES = "gtfsRouteTypes";
+	public static final String TYPE_ATTRIBUTE_DEFAULT = "default";
+
+	private final List<VehicleType> types = new ArrayList<>();
+	private final PrefixNode prefixes = new PrefixNode();
+	private final Map<Integer, VehicleType> routeTypes = new HashMap<>();
+	private VehicleType defaultType = null;
+
+	public static VehicleTypeRegistry load(URL vehicleTypesFile) {
+		Vehicles vehicles = VehicleUtils.createVehiclesContainer();
+		new MatsimVehicleReader(vehicles).readURL(vehicleTypesFile);
+		VehicleTypeRegistry registry = new VehicleTypeRegistry();
+		vehicles.getVehicleTypes().values().forEach(registry::add);
+		log.info("Loaded " + registry.types.size() + " vehicle types from " + vehicleTypesFile);
+		return registry;
+	}
+
+	public void add(VehicleType type) {
+		this.types.add(type);
+		Object linePrefixes = type.getAttributes().getAttribute(TYPE_ATTRIBUTE_LINE_PREFIXES);
+		if (linePrefixes != null) {
+			for (String prefix : linePrefixes.toString().split(",")) {
+				if (!prefix.isBlank()) {
+					this.prefixes.put(prefix.trim(), type);
+				}
+			}
+		}
+		Object gtfsRouteTypes = type.getAttributes().getAttribute(TYPE_ATTRIBUTE_GTFS_ROUTE_TYPES);
+		if (gtfsRouteTypes != null) {
+			for (String routeType : gtfsRouteTypes.toString().split(",")) {
+				if (!routeType.isBlank()) {
+					this.routeTypes.put(Integer.parseInt(routeType.trim()), type);
+				}
+			}
+		}
+		if (Boolean.TRUE.equals(type.getAttributes().getAttribute(TYPE_ATTRIBUTE_DEFAULT))) {
+			this.defaultType = type;
+		}
+	}
+
+	public Collection<VehicleType> getTypes() {
+		return this.types;
+	}
+
+	public VehicleType resolve(TransitLine line) {
+		VehicleType type = line.getName() == null ? null : this.prefixes.getLongestPrefixMatch(line.getName());
+		if (type == null) {
+			Object routeType = line.getAttributes().getAttribute(GtfsRailScheduleReader.LINE_ATTRIBUTE_ROUTE_TYPE);
+			if (routeType != null) {
+				type = this.routeTypes.get(routeType instanceof Number n ? n.intValue() : Integer.parseInt(routeType.toString()));
+			}
+		}
+		if (type == null) {
+			type = this.defaultType;
+		}
+		if (type == null) {
+			throw new IllegalStateException("No vehicle type for transit line " + line.getId() + " (" + line.getName() + ") and no default vehicle type.");
+		}
+		return type;
+	}
+
+	private static final class PrefixNode {
+
+		private final Map<Character, PrefixNode> children = new HashMap<>(4);
+		private VehicleType type = null;
+
+		void put(String prefix, VehicleType type) {
+			PrefixNode node = this;
+			for (int i = 0; i < prefix.length(); i++) {
+				node = node.children.computeIfAbsent(prefix.charAt(i), c -> new PrefixNode());
+			}
+			node.type = type;
+		}
+
+		VehicleType getLongestPrefixMatch(String s) {
+			VehicleType match = null;
+			PrefixNode node = this;
+			for (int i = 0; i < s.length() && node != null; i++) {
+				node = node.children.get(s.charAt(i));
+				if (node != null && node.type != null) {
+					match = node.type;
+				}
+			}
+			return match;
+		}
+	}
+
+}